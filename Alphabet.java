@@ -0,0 +1,118 @@
+
+/**
+ * <!-- class Alphabet -->
+ *
+ * The characters a state machine reads.  Each character has a dense integer
+ * id (its index) from 0 to size()-1 and this class converts between the two
+ * in constant time in both directions.  The environment, the agent and the
+ * paths/episodes they build all share the same Alphabet object.
+ *
+ * The first 26 characters are 'a' through 'z' (as they have always been),
+ * followed by 'A'-'Z', '0'-'9' and then a range of printable unicode
+ * characters so that alphabets of thousands of characters can be used.  The
+ * space character is never used since the agent relies on it as an unknown
+ * command.
+ *
+ */
+public final class Alphabet {
+
+	//first character used after the ascii letters and digits run out
+	private static final char FIRST_EXTENDED = '\u00C0';
+
+	//largest alphabet that can be generated
+	public static final int MAX_SIZE = 26 + 26 + 10 + (Character.MIN_SURROGATE - FIRST_EXTENDED);
+
+	// Instance variables
+	private final char[] symbols;  //index -> character
+	private final int[] indexes;   //character -> index (or -1)
+
+	/**
+	 * creates an alphabet of the given number of characters
+	 */
+	public Alphabet(int size) {
+		this(generate(size));
+	}
+
+	/**
+	 * creates an alphabet from the given characters.  The index of each
+	 * character is its position in the array
+	 */
+	public Alphabet(char[] symbols) {
+		this.symbols = symbols.clone();
+
+		int maxChar = 0;
+		for (int i = 0; i < symbols.length; i++) {
+			maxChar = Math.max(maxChar, symbols[i]);
+		}
+
+		indexes = new int[maxChar + 1];
+		for (int i = 0; i < indexes.length; i++) {
+			indexes[i] = -1;
+		}
+		for (int i = 0; i < symbols.length; i++) {
+			if (indexes[symbols[i]] != -1) {
+				throw new IllegalArgumentException("duplicate character in alphabet: " + symbols[i]);
+			}
+			indexes[symbols[i]] = i;
+		}
+	}
+
+	/**
+	 * builds the array of characters for an alphabet of a given size
+	 */
+	private static char[] generate(int size) {
+		if (size < 0 || size > MAX_SIZE) {
+			throw new IllegalArgumentException("alphabet size must be between 0 and " + MAX_SIZE + ": " + size);
+		}
+
+		char[] result = new char[size];
+		for (int i = 0; i < size; i++) {
+			if (i < 26) {
+				result[i] = (char)('a' + i);
+			}
+			else if (i < 52) {
+				result[i] = (char)('A' + i - 26);
+			}
+			else if (i < 62) {
+				result[i] = (char)('0' + i - 52);
+			}
+			else {
+				result[i] = (char)(FIRST_EXTENDED + i - 62);
+			}
+		}
+		return result;
+	}
+
+	public int size() {
+		return symbols.length;
+	}
+
+	/**
+	 * @return the character with the given index
+	 */
+	public char symbol(int index) {
+		return symbols[index];
+	}
+
+	/**
+	 * @return the index of the given character or -1 if it is not in the
+	 *         alphabet
+	 */
+	public int indexOf(char symbol) {
+		if (symbol >= indexes.length) {
+			return -1;
+		}
+		return indexes[symbol];
+	}
+
+	/**
+	 * @return a copy of the characters in this alphabet in index order
+	 */
+	public char[] toCharArray() {
+		return symbols.clone();
+	}
+
+	public String toString() {
+		return new String(symbols);
+	}
+}
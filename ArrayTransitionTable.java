@@ -0,0 +1,49 @@
+
+/**
+ * <!-- class ArrayTransitionTable -->
+ *
+ * A transition table stored as one int array per state.  This is the
+ * simplest layout and the one used for small machines and hard coded test
+ * machines.
+ *
+ */
+public class ArrayTransitionTable implements TransitionTable {
+
+	private final int[][] transition;
+
+	/**
+	 * creates a table in which every state transitions to itself on every
+	 * character
+	 */
+	public ArrayTransitionTable(int numStates, int numSymbols) {
+		transition = new int[numStates][numSymbols];
+		for (int i = 0; i < numStates; i++) {
+			for (int j = 0; j < numSymbols; j++) {
+				transition[i][j] = i;
+			}
+		}
+	}
+
+	/**
+	 * wraps an existing table (it is not copied)
+	 */
+	public ArrayTransitionTable(int[][] transition) {
+		this.transition = transition;
+	}
+
+	public int numStates() {
+		return transition.length;
+	}
+
+	public int numSymbols() {
+		return (transition.length == 0) ? 0 : transition[0].length;
+	}
+
+	public int get(int state, int symbol) {
+		return transition[state][symbol];
+	}
+
+	public void set(int state, int symbol, int toState) {
+		transition[state][symbol] = toState;
+	}
+}
@@ -0,0 +1,131 @@
+
+/**
+ * <!-- class EnvironmentConfig -->
+ *
+ * The dimensions of a single StateMachineEnvironment: how many states it has,
+ * how many characters are in its alphabet, how many transitions each state
+ * has to some other state and which state is the goal.
+ *
+ * It also says how a random machine is generated (see {@link Generator})
+ * and how its transition table is stored (see {@link Storage}).
+ *
+ * A config never changes once it has been created, so any number of
+ * environments (each with its own config) can be used at the same time, even
+ * from different threads.
+ *
+ */
+public final class EnvironmentConfig {
+
+	// Default values (these were the old static settings of the environment)
+	public static final int DEFAULT_NUM_STATES = 8;
+	public static final int DEFAULT_ALPHABET_SIZE = 6;
+	public static final int DEFAULT_NUM_TRANSITIONS = DEFAULT_ALPHABET_SIZE/2;
+
+	public static final EnvironmentConfig DEFAULT =
+		new EnvironmentConfig(DEFAULT_NUM_STATES, DEFAULT_ALPHABET_SIZE, DEFAULT_NUM_TRANSITIONS);
+
+	/**
+	 * How a random state machine is generated.  Either way every state gets
+	 * exactly numTransitions transitions to other states on randomly chosen
+	 * characters and transitions to itself on every other character.
+	 */
+	public enum Generator {
+		/** pick every transition at random and start over until the goal can be
+		 *  reached from every state */
+		REJECTION,
+		/** link every state into a random tree leading to the goal first so the
+		 *  machine is always valid and generated in a single pass */
+		CONSTRUCTIVE
+	}
+
+	/**
+	 * How the transition table of a generated machine is stored.
+	 */
+	public enum Storage {
+		/** one int array per state (see ArrayTransitionTable) */
+		ARRAY,
+		/** a single packed buffer on the java heap (see PackedTransitionTable) */
+		PACKED,
+		/** a single packed buffer outside of the java heap */
+		OFF_HEAP
+	}
+
+	// Instance variables
+	public final int numStates;       //number of states in the machine
+	public final int alphabetSize;    //number of characters the machine reads
+	public final int numTransitions;  //transitions from each state to a different state
+	public final int goalState;       //the state the agent is trying to reach
+	public final Generator generator; //how random machines are generated
+	public final Storage storage;     //how the transition table is stored
+
+	/**
+	 * creates a config whose goal is the last state
+	 */
+	public EnvironmentConfig(int numStates, int alphabetSize, int numTransitions) {
+		this(numStates, alphabetSize, numTransitions, numStates - 1);
+	}
+
+	public EnvironmentConfig(int numStates, int alphabetSize, int numTransitions, int goalState) {
+		this(numStates, alphabetSize, numTransitions, goalState, Generator.REJECTION, Storage.ARRAY);
+	}
+
+	public EnvironmentConfig(int numStates, int alphabetSize, int numTransitions, int goalState,
+			Generator generator, Storage storage) {
+		if (numStates < 1) {
+			throw new IllegalArgumentException("numStates must be positive: " + numStates);
+		}
+		if (alphabetSize < 1 || alphabetSize > Alphabet.MAX_SIZE) {
+			throw new IllegalArgumentException("alphabetSize must be between 1 and "
+					+ Alphabet.MAX_SIZE + ": " + alphabetSize);
+		}
+		if (numTransitions < 0 || numTransitions > alphabetSize) {
+			throw new IllegalArgumentException("numTransitions must be between 0 and "
+					+ alphabetSize + ": " + numTransitions);
+		}
+		if (goalState < 0 || goalState >= numStates) {
+			throw new IllegalArgumentException("goalState must be a state: " + goalState);
+		}
+		if (generator == Generator.CONSTRUCTIVE && (numStates > 1) != (numTransitions > 0)) {
+			throw new IllegalArgumentException("a constructive machine needs transitions exactly when it has more than one state");
+		}
+
+		this.numStates = numStates;
+		this.alphabetSize = alphabetSize;
+		this.numTransitions = numTransitions;
+		this.goalState = goalState;
+		this.generator = generator;
+		this.storage = storage;
+	}
+
+	/**
+	 * @return a copy of this config that uses the given generator
+	 */
+	public EnvironmentConfig withGenerator(Generator generator) {
+		return new EnvironmentConfig(numStates, alphabetSize, numTransitions, goalState, generator, storage);
+	}
+
+	/**
+	 * @return a copy of this config that uses the given storage
+	 */
+	public EnvironmentConfig withStorage(Storage storage) {
+		return new EnvironmentConfig(numStates, alphabetSize, numTransitions, goalState, generator, storage);
+	}
+
+	/**
+	 * @return a new transition table of this config's size and storage in
+	 *         which every state transitions to itself on every character
+	 */
+	public TransitionTable newTransitionTable() {
+		switch (storage) {
+			case PACKED:   return new PackedTransitionTable(numStates, alphabetSize, false);
+			case OFF_HEAP: return new PackedTransitionTable(numStates, alphabetSize, true);
+			default:       return new ArrayTransitionTable(numStates, alphabetSize);
+		}
+	}
+
+	public String toString() {
+		return "[states=" + numStates + " alphabet=" + alphabetSize
+			+ " transitions=" + numTransitions + " goal=" + goalState
+			+ " generator=" + generator + " storage=" + storage + "]";
+	}
+}
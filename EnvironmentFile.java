@@ -0,0 +1,181 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <!-- class EnvironmentFile -->
+ *
+ * Saves a StateMachineEnvironment to a binary file and loads it back by
+ * memory mapping the file, so that a big machine can be generated once and
+ * then shared by every run (and every process) that needs it.
+ *
+ * The file is laid out as follows (all numbers are big endian):
+ *
+ * <pre>
+ *   int    MAGIC ("SMEN")
+ *   int    VERSION
+ *   int    number of states
+ *   int    alphabet size
+ *   int    transitions per state
+ *   int    goal state
+ *   int    bytes per transition table entry (see PackedTransitionTable)
+ *   char[] the alphabet, in index order
+ *   byte[] the transition table, packed row after row
+ *   int[]  distance from each state to the goal
+ *   int[]  first character (index) of each state's shortest path
+ * </pre>
+ *
+ * Loading does not parse the transition table; the environment reads it
+ * straight out of the mapped file.  The file is mapped read only, so every
+ * process that loads the same file shares the same pages of memory.
+ *
+ */
+public class EnvironmentFile {
+
+	public static final int MAGIC = 0x534D454E;  //"SMEN"
+	public static final int VERSION = 1;
+
+	//size of the fixed part of the header (everything before the alphabet)
+	private static final int HEADER_INTS = 7;
+
+	/**
+	 * Writes an environment to a file (replacing anything already there)
+	 *
+	 * @param env  the environment to save
+	 * @param file where to save it
+	 */
+	public static void write(StateMachineEnvironment env, File file) throws IOException {
+		EnvironmentConfig config = env.getConfig();
+		Alphabet alphabet = env.getAlphabet();
+		TransitionTable table = env.getTransitionTable();
+		int width = PackedTransitionTable.widthFor(config.numStates);
+
+		MappedByteBuffer out;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+				FileChannel channel = raf.getChannel()) {
+			long size = fileSize(config, width);
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("environment is too large to save: " + size + " bytes");
+			}
+			raf.setLength(size);
+			out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+
+		//Header
+		out.putInt(MAGIC);
+		out.putInt(VERSION);
+		out.putInt(config.numStates);
+		out.putInt(config.alphabetSize);
+		out.putInt(config.numTransitions);
+		out.putInt(config.goalState);
+		out.putInt(width);
+		for (int i = 0; i < alphabet.size(); i++) {
+			out.putChar(alphabet.symbol(i));
+		}
+
+		//Transition table, in the packed layout
+		ByteBuffer tableBytes = out.slice();
+		PackedTransitionTable packed =
+			new PackedTransitionTable(tableBytes, config.numStates, config.alphabetSize);
+		for (int i = 0; i < config.numStates; i++) {
+			for (int j = 0; j < config.alphabetSize; j++) {
+				packed.set(i, j, table.get(i, j));
+			}
+		}
+		out.position(out.position() + tableSize(config, width));
+
+		//Shortest path data
+		for (int i = 0; i < config.numStates; i++) {
+			out.putInt(env.getDistance(i));
+		}
+		for (int i = 0; i < config.numStates; i++) {
+			out.putInt(env.getNextHop(i));
+		}
+
+		out.force();
+	}
+
+	/**
+	 * Loads an environment from a file by memory mapping it
+	 *
+	 * @param file a file created by {@link #write}
+	 * @return the environment, at its initial state
+	 */
+	public static StateMachineEnvironment load(File file) throws IOException {
+		MappedByteBuffer in;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+				FileChannel channel = raf.getChannel()) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(file + " is too large to map");
+			}
+			in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		//Header
+		if (in.remaining() < HEADER_INTS * 4 || in.getInt() != MAGIC) {
+			throw new IOException(file + " is not an environment file");
+		}
+		int version = in.getInt();
+		if (version != VERSION) {
+			throw new IOException(file + " has unsupported version " + version);
+		}
+		int numStates = in.getInt();
+		int alphabetSize = in.getInt();
+		int numTransitions = in.getInt();
+		int goalState = in.getInt();
+		int width = in.getInt();
+
+		EnvironmentConfig config;
+		try {
+			config = new EnvironmentConfig(numStates, alphabetSize, numTransitions, goalState,
+					EnvironmentConfig.Generator.REJECTION, EnvironmentConfig.Storage.PACKED);
+		}
+		catch (IllegalArgumentException e) {
+			throw new IOException(file + " is damaged: " + e.getMessage(), e);
+		}
+		if (width != PackedTransitionTable.widthFor(numStates) || in.capacity() != fileSize(config, width)) {
+			throw new IOException(file + " is damaged");
+		}
+
+		char[] symbols = new char[alphabetSize];
+		for (int i = 0; i < alphabetSize; i++) {
+			symbols[i] = in.getChar();
+		}
+		Alphabet alphabet;
+		try {
+			alphabet = new Alphabet(symbols);
+		}
+		catch (IllegalArgumentException e) {
+			throw new IOException(file + " is damaged: " + e.getMessage(), e);
+		}
+
+		//The transition table is used right where it is
+		ByteBuffer tableBytes = in.slice();
+		TransitionTable table = new PackedTransitionTable(tableBytes, numStates, alphabetSize);
+		in.position(in.position() + tableSize(config, width));
+
+		//Shortest path data
+		int[] distance = new int[numStates];
+		int[] nextHop = new int[numStates];
+		in.asIntBuffer().get(distance).get(nextHop);
+
+		return new StateMachineEnvironment(config, alphabet, table, distance, nextHop);
+	}
+
+	/** @return the number of bytes in the packed transition table */
+	private static int tableSize(EnvironmentConfig config, int width) {
+		return config.numStates * config.alphabetSize * width;
+	}
+
+	/** @return the number of bytes in the whole file */
+	private static long fileSize(EnvironmentConfig config, int width) {
+		return HEADER_INTS * 4L
+			+ 2L * config.alphabetSize
+			+ (long)config.numStates * config.alphabetSize * width
+			+ 8L * config.numStates;
+	}
+}
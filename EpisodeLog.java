@@ -0,0 +1,284 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <!-- class EpisodeLog -->
+ *
+ * An append only file of the episodes in an agent's EpisodicMemory, so a
+ * long run can be looked at afterwards (or its memory rebuilt) without
+ * ticking the environment again.  Attach a log with
+ * {@link EpisodicMemory#setLog} and read it back with {@link #replay}.
+ *
+ * The file is laid out as follows (all numbers are big endian):
+ *
+ * <pre>
+ *   int    MAGIC ("SMEP")
+ *   int    VERSION
+ *   long   number of episodes
+ *   then for each episode (RECORD_SIZE bytes):
+ *     char   command
+ *     byte   sensor value
+ *     byte   unused
+ *     int    state ID
+ * </pre>
+ *
+ * Episodes are written into a memory mapped window at the end of the file.
+ * They are only counted in the header when the log is flushed, which happens
+ * every flushInterval episodes (and on close), so a crash loses at most the
+ * episodes since the last flush and never leaves a half written episode in
+ * the count.
+ *
+ * The file always ends with the rest of the last window, so it is usually
+ * longer than the episodes in it.  It isn't trimmed because a file can't be
+ * shortened while part of it is mapped on some systems (Windows), and Java
+ * has no supported way to unmap it first.  Readers go by the count in the
+ * header.
+ *
+ * A log can also be reopened to add to it, for example to carry on logging a
+ * run that was resumed from it (see {@link StateMachineAgent#resume}).
+ *
+ */
+public class EpisodeLog implements AutoCloseable {
+
+	public static final int MAGIC = 0x534D4550;  //"SMEP"
+	public static final int VERSION = 1;
+	public static final int RECORD_SIZE = 8;
+	public static final int DEFAULT_FLUSH_INTERVAL = 1 << 16;
+
+	private static final int HEADER_SIZE = 16;
+	private static final int COUNT_OFFSET = 8;
+	//episodes in each mapped window of the file
+	private static final int WINDOW_RECORDS = 1 << 17;
+
+	// Instance variables
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final int flushInterval;
+	private MappedByteBuffer window;  //the part of the file being appended to
+	private long windowStart;         //index of the first episode in window
+	private long size;                //episodes written
+	private long flushed;             //episodes counted in the header
+
+	/**
+	 * creates a new, empty log (replacing anything already in the file)
+	 */
+	public EpisodeLog(File file) throws IOException {
+		this(file, DEFAULT_FLUSH_INTERVAL);
+	}
+
+	/**
+	 * @param flushInterval how many episodes to write between flushes
+	 */
+	public EpisodeLog(File file, int flushInterval) throws IOException {
+		this(file, flushInterval, false);
+	}
+
+	/**
+	 * @param flushInterval how many episodes to write between flushes
+	 * @param append        if true and the file isn't empty, new episodes are
+	 *                      added after the ones already in it (and it must be
+	 *                      a log).  Otherwise the file is started afresh.
+	 */
+	public EpisodeLog(File file, int flushInterval, boolean append) throws IOException {
+		if (flushInterval < 1) {
+			throw new IllegalArgumentException("flushInterval must be positive: " + flushInterval);
+		}
+		this.file = file;
+		this.flushInterval = flushInterval;
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+		try {
+			if (append && channel.size() > 0) {
+				//Carry on after the episodes counted in the header (anything
+				//after them was never flushed and gets written over)
+				size = readCount(file, channel);
+				flushed = size;
+			}
+			else {
+				raf.setLength(0);
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.putInt(MAGIC).putInt(VERSION).putLong(0).flip();
+				channel.write(header, 0);
+			}
+			mapWindow(size);
+		}
+		catch (IOException | RuntimeException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	/** @return the number of episodes written to the log */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * adds an episode to the end of the log
+	 */
+	public void append(char command, int sensorValue, int stateID) {
+		if (size == windowStart + WINDOW_RECORDS) {
+			mapWindow(size);
+		}
+		int at = (int)(size - windowStart) * RECORD_SIZE;
+		window.putChar(at, command);
+		window.put(at + 2, (byte)sensorValue);
+		window.putInt(at + 4, stateID);
+		size++;
+
+		if (size - flushed >= flushInterval) {
+			flush();
+		}
+	}
+
+	/**
+	 * changes the command of an episode already in the log
+	 */
+	public void setCommand(long index, char command) {
+		checkIndex(index);
+		if (index >= windowStart) {
+			window.putChar((int)(index - windowStart) * RECORD_SIZE, command);
+		}
+		else {
+			ByteBuffer bytes = ByteBuffer.allocate(2);
+			bytes.putChar(command).flip();
+			write(bytes, recordPosition(index));
+		}
+	}
+
+	/**
+	 * changes the state ID of an episode already in the log
+	 */
+	public void setStateID(long index, int stateID) {
+		checkIndex(index);
+		if (index >= windowStart) {
+			window.putInt((int)(index - windowStart) * RECORD_SIZE + 4, stateID);
+		}
+		else {
+			ByteBuffer bytes = ByteBuffer.allocate(4);
+			bytes.putInt(stateID).flip();
+			write(bytes, recordPosition(index) + 4);
+		}
+	}
+
+	/**
+	 * Makes sure every episode written so far is on disk and then counts them
+	 * in the header
+	 */
+	public void flush() {
+		window.force();
+		ByteBuffer count = ByteBuffer.allocate(8);
+		count.putLong(size).flip();
+		write(count, COUNT_OFFSET);
+		try {
+			channel.force(false);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(file + ": " + e.getMessage(), e);
+		}
+		flushed = size;
+	}
+
+	/**
+	 * flushes the log and closes the file (leaving the rest of the last
+	 * window at the end of it)
+	 */
+	public void close() throws IOException {
+		try {
+			flush();
+			window = null;
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Reads a log back into memory
+	 *
+	 * @param file   a file written by an EpisodeLog
+	 * @param memory the memory to add the episodes to (normally a new one)
+	 * @return the number of episodes read
+	 */
+	public static long replay(File file, EpisodicMemory memory) throws IOException {
+		try (RandomAccessFile in = new RandomAccessFile(file, "r");
+				FileChannel channel = in.getChannel()) {
+			long count = readCount(file, channel);
+
+			//Map a window at a time so that logs bigger than 2GB can be read
+			for (long start = 0; start < count; start += WINDOW_RECORDS) {
+				int records = (int)Math.min(WINDOW_RECORDS, count - start);
+				MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY,
+						recordPosition(start), (long)records * RECORD_SIZE);
+				for (int at = 0; at < records * RECORD_SIZE; at += RECORD_SIZE) {
+					memory.add(window.getChar(at), window.get(at + 2), window.getInt(at + 4));
+				}
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * checks a log's header
+	 *
+	 * @return the number of episodes the header counts
+	 */
+	private static long readCount(File file, FileChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		if (channel.read(header, 0) != HEADER_SIZE || header.getInt(0) != MAGIC) {
+			throw new IOException(file + " is not an episode log");
+		}
+		int version = header.getInt(4);
+		if (version != VERSION) {
+			throw new IOException(file + " has unsupported version " + version);
+		}
+		long count = header.getLong(COUNT_OFFSET);
+		if (count < 0 || channel.size() < recordPosition(count)) {
+			throw new IOException(file + " is damaged");
+		}
+		return count;
+	}
+
+	private static long recordPosition(long index) {
+		return HEADER_SIZE + index * RECORD_SIZE;
+	}
+
+	/** maps the window of the file that starts with the given episode */
+	private void mapWindow(long start) {
+		try {
+			if (window != null) {
+				window.force();
+			}
+			window = channel.map(FileChannel.MapMode.READ_WRITE, recordPosition(start),
+					(long)WINDOW_RECORDS * RECORD_SIZE);
+			windowStart = start;
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(file + ": " + e.getMessage(), e);
+		}
+	}
+
+	private void write(ByteBuffer bytes, long position) {
+		try {
+			while (bytes.hasRemaining()) {
+				position += channel.write(bytes, position);
+			}
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(file + ": " + e.getMessage(), e);
+		}
+	}
+
+	private void checkIndex(long index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+	}
+}
@@ -0,0 +1,407 @@
+
+import java.util.Arrays;
+
+/**
+ * <!-- class EpisodicMemory -->
+ *
+ * The agent's memory of every step it has taken.  Episode i is made up of
+ * the command the agent issued, the sensor value it sensed and the state the
+ * agent believed it was in.  Rather than one Episode object per step, each of
+ * the three is kept in its own growable primitive array, which takes a
+ * fraction of the memory and makes scanning backwards through memory cache
+ * friendly.
+ *
+ * Memory also keeps the positions of every goal, in order, and an index of
+ * everything up to the most recent goal (see {@link #longestMatchIndex}).
+ * Both are brought up to date as episodes are added.
+ *
+ * By default memory keeps every episode.  Given a bounded RetentionPolicy it
+ * forgets old episodes whenever it fills up and then rebuilds its indexes, so
+ * index numbers only stay the same until the next episode is added.  To find
+ * an episode again after that, remember its number instead (every episode
+ * ever added is numbered from 0, see {@link #numAdded}) and look it up with
+ * {@link #indexOf}.
+ *
+ */
+public class EpisodicMemory {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	// Instance variables
+	private char[] commands;   //what the agent did
+	private byte[] sensors;    //what the agent sensed
+	private int[] stateIDs;    //the state that the agent was in
+	private int size;
+	//commands[0..sharedCommands-1] is being read by a Path and must be
+	//copied before it is changed
+	private int sharedCommands;
+
+	//the index of every episode (other than the first) that reached the goal
+	private int[] goals;
+	private int numGoals;
+
+	//Index of the (command, next sensor value) pairs before the last goal.
+	//Pair j is the command of episode j and the sensors of episode j+1.
+	private SuffixAutomaton history;
+	//the longest suffix of all the pairs so far that appears in history
+	private int matchState = SuffixAutomaton.ROOT;
+	private int matchLength = 0;
+
+	private RetentionPolicy policy;
+
+	//Episode i is number numberBase + i for every i from numberedFrom on.
+	//Older ones have lost their numbers because forget() merged away
+	//episodes after them.
+	private long numberBase;
+	private int numberedFrom;
+
+	//Every episode added is also written to log (if there is one).  Episode
+	//i is number logBase + i in the log for every i from logValidFrom on;
+	//older ones may have been merged away by forget().
+	private EpisodeLog log;
+	private long logBase;
+	private int logValidFrom;
+
+	public EpisodicMemory() {
+		this(RetentionPolicy.UNBOUNDED);
+	}
+
+	public EpisodicMemory(RetentionPolicy policy) {
+		this.policy = policy;
+		commands = new char[INITIAL_CAPACITY];
+		sensors = new byte[INITIAL_CAPACITY];
+		stateIDs = new int[INITIAL_CAPACITY];
+		goals = new int[INITIAL_CAPACITY];
+		history = new SuffixAutomaton();
+	}
+
+	public RetentionPolicy getRetentionPolicy() {
+		return policy;
+	}
+
+	/**
+	 * changes how much memory keeps, forgetting episodes right away if there
+	 * are more than the new policy allows
+	 */
+	public void setRetentionPolicy(RetentionPolicy policy) {
+		this.policy = policy;
+		while (size >= policy.maxEpisodes) {
+			forget();
+		}
+	}
+
+	/**
+	 * Starts writing every episode to a log, beginning with the ones already
+	 * in memory.  Changes to episodes are written to the log as well.
+	 */
+	public void setLog(EpisodeLog log) {
+		this.log = log;
+		logBase = log.size();
+		logValidFrom = 0;
+		for (int i = 0; i < size; i++) {
+			log.append(commands[i], sensors[i], stateIDs[i]);
+		}
+	}
+
+	/**
+	 * Carries on writing to the log this memory was read back from (see
+	 * EpisodeLog.replay, which must have started with an empty memory).  The
+	 * episodes the log already has aren't written again; any added since the
+	 * replay are.
+	 */
+	public void continueLog(EpisodeLog log) {
+		//Episode number n is at position n in the log
+		long logged = log.size();
+		if (logged > numAdded()) {
+			throw new IllegalArgumentException("the log has " + logged
+					+ " episodes but only " + numAdded() + " were added to memory");
+		}
+		int from = (logged == numAdded()) ? size : indexOf(logged);
+		if (from == -1) {
+			throw new IllegalStateException("memory has forgotten episodes the log doesn't have");
+		}
+		this.log = log;
+		logBase = numberBase;
+		logValidFrom = numberedFrom;
+		for (int i = from; i < size; i++) {
+			log.append(commands[i], sensors[i], stateIDs[i]);
+		}
+	}
+
+	/** @return the number of episodes in memory */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the number of episodes ever added to memory (including the ones
+	 *         it has forgotten), which is the number the next one will get
+	 */
+	public long numAdded() {
+		return numberBase + size;
+	}
+
+	/**
+	 * @param number an episode's number (see {@link #numAdded})
+	 * @return the index of that episode now, or -1 if memory has forgotten it
+	 *         (or merged it, or any episode after it, with another)
+	 */
+	public int indexOf(long number) {
+		long index = number - numberBase;
+		if (index < numberedFrom || index >= size) {
+			return -1;
+		}
+		return (int)index;
+	}
+
+	/**
+	 * adds an episode to the end of memory
+	 */
+	public void add(char command, int sensorValue, int stateID) {
+		if (size == policy.maxEpisodes) {
+			forget();
+		}
+		if (size == commands.length) {
+			int capacity = (int)Math.min(commands.length * 2L, policy.maxEpisodes);
+			commands = Arrays.copyOf(commands, capacity);
+			sensors = Arrays.copyOf(sensors, capacity);
+			stateIDs = Arrays.copyOf(stateIDs, capacity);
+			sharedCommands = 0;  //any paths keep the old array
+		}
+		commands[size] = command;
+		sensors[size] = (byte)sensorValue;
+		stateIDs[size] = stateID;
+		size++;
+		if (log != null) {
+			log.append(command, sensorValue, stateID);
+		}
+
+		//The command of the previous episode can no longer change, so its
+		//pair is complete
+		if (size >= 2) {
+			if (sensorValue == StateMachineEnvironment.GOAL) {
+				if (numGoals == goals.length) {
+					goals = Arrays.copyOf(goals, numGoals * 2);
+				}
+				goals[numGoals++] = size - 1;
+
+				for (int j = history.length(); j < size - 1; j++) {
+					history.append(pair(j));
+				}
+				matchState = history.lastState();
+				matchLength = history.length();
+			}
+			else if (numGoals > 0) {
+				extendMatch(pair(size - 2));
+			}
+		}
+	}
+
+	/**
+	 * Forgets episodes as the retention policy says and then rebuilds the
+	 * goal and match indexes from what is left
+	 */
+	private void forget() {
+		int keepFrom = size - policy.maxEpisodes / 2;
+		if (policy.goalSegments > 0 && numGoals > policy.goalSegments) {
+			//the goal that starts the oldest segment kept becomes episode 0
+			keepFrom = Math.max(keepFrom, goals[numGoals - 1 - policy.goalSegments]);
+		}
+		keepFrom = Math.max(0, Math.min(keepFrom, size - 1));
+		int untouchedFrom = size - policy.maxEpisodes / 4;
+
+		//Paths may still be reading the old commands
+		char[] keptCommands = (sharedCommands > 0) ? new char[commands.length] : commands;
+		int kept = 0;
+		int idleRun = 0;
+		int lastDropped = -1;
+		for (int i = keepFrom; i < size; i++) {
+			if (kept > 0 && sensors[i] == StateMachineEnvironment.NO_TRANSITION) {
+				idleRun++;
+				if (policy.maxIdleRun > 0 && idleRun > policy.maxIdleRun && i < untouchedFrom) {
+					//Nothing changed in this episode, so drop it and carry
+					//on from the previous one with this one's command
+					keptCommands[kept - 1] = commands[i];
+					lastDropped = i;
+					continue;
+				}
+			}
+			else {
+				idleRun = 0;
+			}
+			keptCommands[kept] = commands[i];
+			sensors[kept] = sensors[i];
+			stateIDs[kept] = stateIDs[i];
+			kept++;
+		}
+		commands = keptCommands;
+		sharedCommands = 0;
+
+		//Everything after the last episode dropped has moved back by the same
+		//amount, so it keeps its number and its place in the log
+		int numbered = Math.max(Math.max(numberedFrom, keepFrom), lastDropped + 1);
+		numberBase += size - kept;
+		numberedFrom = numbered - (size - kept);
+		int logged = Math.max(Math.max(logValidFrom, keepFrom), lastDropped + 1);
+		logBase += size - kept;
+		logValidFrom = logged - (size - kept);
+		size = kept;
+
+		//Rebuild the indexes
+		numGoals = 0;
+		for (int i = 1; i < size; i++) {
+			if (sensors[i] == StateMachineEnvironment.GOAL) {
+				if (numGoals == goals.length) {
+					goals = Arrays.copyOf(goals, numGoals * 2);
+				}
+				goals[numGoals++] = i;
+			}
+		}
+		history = new SuffixAutomaton();
+		matchState = SuffixAutomaton.ROOT;
+		matchLength = 0;
+		if (numGoals > 0) {
+			int lastGoal = goals[numGoals - 1];
+			for (int j = 0; j < lastGoal; j++) {
+				history.append(pair(j));
+			}
+			matchState = history.lastState();
+			matchLength = history.length();
+			for (int j = lastGoal; j < size - 1; j++) {
+				extendMatch(pair(j));
+			}
+		}
+	}
+
+	/** @return the pair that starts at the given episode as a single symbol */
+	private int pair(int index) {
+		return (commands[index] << 8) | (sensors[index + 1] & 0xFF);
+	}
+
+	/** extends the current match with the next pair, falling back to shorter suffixes as needed */
+	private void extendMatch(int symbol) {
+		int next = history.next(matchState, symbol);
+		while (next == SuffixAutomaton.NONE && matchState != SuffixAutomaton.ROOT) {
+			matchState = history.link(matchState);
+			matchLength = history.len(matchState);
+			next = history.next(matchState, symbol);
+		}
+		if (next == SuffixAutomaton.NONE) {
+			matchLength = 0;
+		}
+		else {
+			matchState = next;
+			matchLength++;
+		}
+	}
+
+	/**
+	 * Finds the longest sequence of (command, sensors) pairs before the most
+	 * recent goal that matches the most recent pairs in memory.  If several
+	 * are just as long the latest one is used.
+	 *
+	 * @return the index of the episode just after the match, 0 if nothing
+	 *         matches or -1 if there has been no goal yet or the goal was just
+	 *         reached
+	 */
+	public int longestMatchIndex() {
+		if (numGoals == 0 || goals[numGoals - 1] == size - 1) {
+			return -1;
+		}
+		if (matchLength == 0) {
+			return 0;
+		}
+		return history.lastEnd(matchState) + 1;
+	}
+
+	public char command(int index) {
+		checkIndex(index);
+		return commands[index];
+	}
+
+	public int sensorValue(int index) {
+		checkIndex(index);
+		return sensors[index];
+	}
+
+	public int stateID(int index) {
+		checkIndex(index);
+		return stateIDs[index];
+	}
+
+	public void setCommand(int index, char command) {
+		checkIndex(index);
+		if (index < sharedCommands) {
+			commands = commands.clone();
+			sharedCommands = 0;
+		}
+		commands[index] = command;
+		if (log != null && index >= logValidFrom) {
+			log.setCommand(logBase + index, command);
+		}
+	}
+
+	public void setStateID(int index, int stateID) {
+		checkIndex(index);
+		stateIDs[index] = stateID;
+		if (log != null && index >= logValidFrom) {
+			log.setStateID(logBase + index, stateID);
+		}
+	}
+
+	/**
+	 * Finds the most recent goal before a given index.  The first episode
+	 * never counts as a goal.
+	 *
+	 * @param toStart the index to search back from (not included)
+	 * @return the index of the goal or -1 if there is none
+	 */
+	public int lastGoalBefore(int toStart) {
+		//Usually the most recent goal is the one wanted
+		if (numGoals == 0 || goals[0] >= toStart) {
+			return -1;
+		}
+		if (goals[numGoals - 1] < toStart) {
+			return goals[numGoals - 1];
+		}
+		int found = Arrays.binarySearch(goals, 0, numGoals, toStart);
+		//toStart itself is excluded, otherwise take the goal before the insertion point
+		return goals[(found >= 0) ? found - 1 : -found - 2];
+	}
+
+	/**
+	 * @return the commands of the given episodes as a path.  The path reads
+	 *         straight from memory rather than copying it.
+	 */
+	public Path commandPath(int from, int to) {
+		if (from < 0 || from > to || to > size) {
+			throw new IndexOutOfBoundsException("from " + from + ", to " + to + ", size " + size);
+		}
+		sharedCommands = Math.max(sharedCommands, to);
+		return Path.view(commands, from, to - from);
+	}
+
+	/**
+	 * @return a copy of the given episode as an Episode object
+	 */
+	public Episode get(int index) {
+		return new Episode(command(index), sensorValue(index), stateID(index));
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+	}
+
+	public String toString() {
+		StringBuilder result = new StringBuilder("[");
+		for (int i = 0; i < size; i++) {
+			if (i > 0) {
+				result.append(", ");
+			}
+			result.append(get(i));
+		}
+		return result.append("]").toString();
+	}
+}
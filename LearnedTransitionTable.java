@@ -0,0 +1,514 @@
+
+import java.util.Arrays;
+
+/**
+ * <!-- class LearnedTransitionTable -->
+ *
+ * The agent's own picture of the state machine it is exploring: for each
+ * state the agent has made up and each character (by its index in the
+ * alphabet) the state the agent believes that character leads to, or
+ * {@link #UNKNOWN} if it hasn't found out yet.
+ *
+ * When the agent decides that two of its states are really the same one it
+ * merges them.  Merging joins the two states in a union-find structure
+ * instead of rewriting every transition that leads to the state that goes
+ * away.  Any state ID (in the table, in episodic memory or anywhere else)
+ * can then be turned into the state that survived with {@link #find}, and
+ * {@link #get} always does so.  A merge takes O(alphabet size) to combine
+ * the two rows and almost O(1) for everything else.
+ *
+ * A state can also be deleted, which just marks it as no longer in use.
+ *
+ * The table also keeps, for every state, a list of the transitions that
+ * lead to it (see {@link #firstReference}) and a worklist of the states
+ * whose rows have changed (see {@link #takeChanged}).  Together they let the
+ * agent look for states that can be merged only among the rows that changed
+ * and the rows that share a transition with them, rather than comparing
+ * every row with every other row.
+ *
+ * For each state the table also keeps a list of the characters whose
+ * transitions are still unknown (see {@link #numUnknown} and {@link
+ * #unknownSymbol}), so one can be picked without searching the row, and a
+ * count of the unknown transitions of all the states still in use, so
+ * {@link #totalUnknown} can tell whether the table is complete in O(1).
+ *
+ * Finally the table can keep track of which states can be reached from a
+ * given state (see {@link #trackReachableFrom}).  Learning a new transition
+ * or merging two states that agree only ever makes more states reachable, so
+ * those are handled by visiting just the newly reachable states.  Only when a
+ * known transition is changed or dropped is the whole set found again, and
+ * then not until it's next asked for.
+ *
+ */
+public class LearnedTransitionTable implements TransitionTable {
+
+	public static final int UNKNOWN = -1;
+	public static final int NONE = -1;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	// Instance variables
+	private final int numSymbols;
+	private int numStates;
+	private int[] cells;      //row after row; entries may name merged states
+	private int[] parent;     //union-find parent (a root is its own parent)
+	private byte[] rank;      //union-find rank of each root
+	private int[] survivor;   //for each root, the state ID its set goes by
+	private boolean[] deleted;
+
+	//Every cell with a known target is in a doubly linked list of the cells
+	//that lead to that target (the state its target goes by now)
+	private int[] refNext;    //per cell
+	private int[] refPrev;    //per cell
+	private int[] refHead;    //per state
+	private int[] refTail;    //per state
+
+	//states whose rows have changed since they were last taken
+	private int[] changed;
+	private int numChanged;
+	private boolean[] isChanged;
+
+	private int version;      //bumped whenever a transition changes
+
+	//For each state its unknown characters are at the front of its row in
+	//unknownSymbols (in no particular order), and unknownIndex tells where
+	//each unknown character of a row is in that list
+	private int[] unknownSymbols;  //per cell
+	private int[] unknownIndex;    //per cell
+	private int[] numUnknown;      //per state
+	private int totalUnknown;      //of the states that aren't merged or deleted
+
+	//states reachable from reachRoot (if it isn't NONE)
+	private int reachRoot = NONE;
+	private boolean[] reachable;
+	private boolean reachStale;  //reachable must be found again from scratch
+	private int[] reachStack;
+
+	public LearnedTransitionTable(int numSymbols) {
+		this.numSymbols = numSymbols;
+		cells = new int[INITIAL_CAPACITY * numSymbols];
+		refNext = new int[INITIAL_CAPACITY * numSymbols];
+		refPrev = new int[INITIAL_CAPACITY * numSymbols];
+		unknownSymbols = new int[INITIAL_CAPACITY * numSymbols];
+		unknownIndex = new int[INITIAL_CAPACITY * numSymbols];
+		numUnknown = new int[INITIAL_CAPACITY];
+		parent = new int[INITIAL_CAPACITY];
+		rank = new byte[INITIAL_CAPACITY];
+		survivor = new int[INITIAL_CAPACITY];
+		deleted = new boolean[INITIAL_CAPACITY];
+		refHead = new int[INITIAL_CAPACITY];
+		refTail = new int[INITIAL_CAPACITY];
+		changed = new int[INITIAL_CAPACITY];
+		isChanged = new boolean[INITIAL_CAPACITY];
+		reachable = new boolean[INITIAL_CAPACITY];
+		reachStack = new int[INITIAL_CAPACITY];
+	}
+
+	/** @return the number of state IDs handed out (including merged and deleted ones) */
+	public int numStates() {
+		return numStates;
+	}
+
+	public int numSymbols() {
+		return numSymbols;
+	}
+
+	/**
+	 * @return a number that changes whenever a transition of the table
+	 *         changes (when one is set to a different state or when two
+	 *         states are merged).  Adding and deleting states don't change it.
+	 */
+	public int version() {
+		return version;
+	}
+
+	/**
+	 * adds a state whose transitions are all unknown
+	 *
+	 * @return the new state's ID (always the previous number of states)
+	 */
+	public int addState() {
+		if (numStates == parent.length) {
+			int capacity = numStates * 2;
+			cells = Arrays.copyOf(cells, capacity * numSymbols);
+			refNext = Arrays.copyOf(refNext, capacity * numSymbols);
+			refPrev = Arrays.copyOf(refPrev, capacity * numSymbols);
+			unknownSymbols = Arrays.copyOf(unknownSymbols, capacity * numSymbols);
+			unknownIndex = Arrays.copyOf(unknownIndex, capacity * numSymbols);
+			numUnknown = Arrays.copyOf(numUnknown, capacity);
+			parent = Arrays.copyOf(parent, capacity);
+			rank = Arrays.copyOf(rank, capacity);
+			survivor = Arrays.copyOf(survivor, capacity);
+			deleted = Arrays.copyOf(deleted, capacity);
+			refHead = Arrays.copyOf(refHead, capacity);
+			refTail = Arrays.copyOf(refTail, capacity);
+			changed = Arrays.copyOf(changed, capacity);
+			isChanged = Arrays.copyOf(isChanged, capacity);
+			reachable = Arrays.copyOf(reachable, capacity);
+			reachStack = Arrays.copyOf(reachStack, capacity);
+		}
+		int state = numStates++;
+		Arrays.fill(cells, state * numSymbols, (state + 1) * numSymbols, UNKNOWN);
+		for (int i = 0; i < numSymbols; i++) {
+			unknownSymbols[state * numSymbols + i] = i;
+			unknownIndex[state * numSymbols + i] = i;
+		}
+		numUnknown[state] = numSymbols;
+		totalUnknown += numSymbols;
+		parent[state] = state;
+		survivor[state] = state;
+		refHead[state] = NONE;
+		refTail[state] = NONE;
+		return state;
+	}
+
+	/**
+	 * @return the ID of the state that the given state has been merged into
+	 *         (itself if it hasn't been merged).  Negative values (such as
+	 *         UNKNOWN) are returned as they are.
+	 */
+	public int find(int state) {
+		if (state < 0) {
+			return state;
+		}
+		int root = state;
+		while (parent[root] != root) {
+			parent[root] = parent[parent[root]];  //path halving
+			root = parent[root];
+		}
+		return survivor[root];
+	}
+
+	/**
+	 * @return the state reached from the given state on the given character
+	 *         (after following any merges) or UNKNOWN
+	 */
+	public int get(int state, int symbol) {
+		int at = find(state) * numSymbols + symbol;
+		int target = cells[at];
+		if (target >= 0) {
+			int current = find(target);
+			cells[at] = current;  //remember it for next time
+			target = current;
+		}
+		return target;
+	}
+
+	public void set(int state, int symbol, int toState) {
+		int row = find(state);
+		int at = row * numSymbols + symbol;
+		int before = cells[at];
+		if (before >= 0) {
+			unlink(at, find(before));
+		}
+		cells[at] = toState;
+		if (toState >= 0) {
+			link(at, find(toState));
+		}
+		if (before < 0 && toState >= 0) {
+			removeUnknown(row, symbol);
+		}
+		else if (before >= 0 && toState < 0) {
+			addUnknown(row, symbol);
+		}
+		if (find(before) != find(toState)) {
+			markChanged(row);
+			version++;
+			if (before >= 0) {
+				reachStale = true;  //states may have become unreachable
+			}
+			else if (toState >= 0 && reachable[row] && !reachStale) {
+				reach(find(toState));
+			}
+		}
+	}
+
+	/**
+	 * @return the number of characters whose transitions from the given
+	 *         state are unknown
+	 */
+	public int numUnknown(int state) {
+		return numUnknown[find(state)];
+	}
+
+	/**
+	 * @return the number of unknown transitions from all the states that
+	 *         haven't been merged or deleted (0 once the table is complete)
+	 */
+	public int totalUnknown() {
+		return totalUnknown;
+	}
+
+	/**
+	 * @param k which of the state's unknown characters to return (from 0 to
+	 *          numUnknown(state) - 1).  They are in no particular order.
+	 * @return the index of a character whose transition from the given state
+	 *         is unknown
+	 */
+	public int unknownSymbol(int state, int k) {
+		int row = find(state);
+		if (k < 0 || k >= numUnknown[row]) {
+			throw new IndexOutOfBoundsException("Index: " + k + ", Unknown: " + numUnknown[row]);
+		}
+		return unknownSymbols[row * numSymbols + k];
+	}
+
+	/**
+	 * @return true if the given state has been merged into another one or
+	 *         deleted
+	 */
+	public boolean isDeleted(int state) {
+		return state < 0 || find(state) != state || deleted[state];
+	}
+
+	/**
+	 * @return true if the given state has been merged into another one
+	 */
+	public boolean isMerged(int state) {
+		return find(state) != state;
+	}
+
+	/**
+	 * marks a state as no longer in use.  Transitions to it are left alone.
+	 */
+	public void delete(int state) {
+		int row = find(state);
+		if (!deleted[row]) {
+			deleted[row] = true;
+			totalUnknown -= numUnknown[row];
+		}
+	}
+
+	/**
+	 * Merges two states that are believed to be the same.  Every transition
+	 * that state1 doesn't know is taken from state2, and from now on state2
+	 * (and everything already merged into it) is state1.
+	 *
+	 * @return the ID of the merged state (state1 after following any merges)
+	 */
+	public int merge(int state1, int state2) {
+		int keep = find(state1);
+		int lose = find(state2);
+		if (keep == lose) {
+			return keep;
+		}
+
+		int keepRow = keep * numSymbols;
+		int loseRow = lose * numSymbols;
+		for (int i = 0; i < numSymbols; i++) {
+			int target = cells[loseRow + i];
+			if (target >= 0) {
+				unlink(loseRow + i, find(target));
+				if (cells[keepRow + i] == UNKNOWN) {
+					cells[keepRow + i] = target;
+					link(keepRow + i, find(target));
+					removeUnknown(keep, i);
+				}
+				else if (find(cells[keepRow + i]) != find(target)) {
+					reachStale = true;  //lose's transition is dropped
+				}
+			}
+		}
+		markChanged(keep);
+		version++;
+		if (!deleted[lose]) {
+			totalUnknown -= numUnknown[lose];  //lose's row is gone
+		}
+
+		//Every row that led to lose now leads to keep
+		for (int cell = refHead[lose]; cell != NONE; cell = refNext[cell]) {
+			markChanged(cell / numSymbols);
+		}
+		if (refHead[lose] != NONE) {
+			if (refHead[keep] == NONE) {
+				refHead[keep] = refHead[lose];
+			}
+			else {
+				refNext[refTail[keep]] = refHead[lose];
+				refPrev[refHead[lose]] = refTail[keep];
+			}
+			refTail[keep] = refTail[lose];
+			refHead[lose] = NONE;
+			refTail[lose] = NONE;
+		}
+
+		//union by rank; whichever root is kept, the set goes by keep's ID
+		int a = root(keep);
+		int b = root(lose);
+		if (rank[a] < rank[b]) {
+			int swap = a;
+			a = b;
+			b = swap;
+		}
+		else if (rank[a] == rank[b]) {
+			rank[a]++;
+		}
+		parent[b] = a;
+		survivor[a] = keep;
+
+		//keep now has lose's transitions as well as its own
+		if ((reachable[keep] || reachable[lose]) && !reachStale) {
+			reachable[keep] = true;
+			reachRow(keep);
+		}
+		return keep;
+	}
+
+	/**
+	 * Starts keeping track of the states that can be reached from the given
+	 * state (see {@link #isReachable})
+	 */
+	public void trackReachableFrom(int root) {
+		reachRoot = root;
+		reachStale = true;
+	}
+
+	/**
+	 * @return true if the given state can be reached from the state given to
+	 *         {@link #trackReachableFrom} by following known transitions
+	 */
+	public boolean isReachable(int state) {
+		if (reachRoot == NONE) {
+			throw new IllegalStateException("reachable states are not being tracked");
+		}
+		if (reachStale) {
+			reachStale = false;
+			Arrays.fill(reachable, false);
+			reach(find(reachRoot));
+		}
+		return state >= 0 && reachable[find(state)];
+	}
+
+	/**
+	 * @return the first transition (as a cell number, see {@link
+	 *         #cellState} and {@link #cellSymbol}) that leads to the given
+	 *         state, or NONE.  The cells of merged and deleted states may be
+	 *         among them.
+	 */
+	public int firstReference(int state) {
+		return refHead[find(state)];
+	}
+
+	/** @return the transition after the given one that leads to the same state, or NONE */
+	public int nextReference(int cell) {
+		return refNext[cell];
+	}
+
+	/** @return the state that a transition (as returned by firstReference) is from */
+	public int cellState(int cell) {
+		return cell / numSymbols;
+	}
+
+	/** @return the character (index) that a transition (as returned by firstReference) is on */
+	public int cellSymbol(int cell) {
+		return cell % numSymbols;
+	}
+
+	/**
+	 * Takes a state off the worklist of states whose rows have changed.  A
+	 * row changes when one of its transitions is set, when another state is
+	 * merged into it or when a state one of its transitions leads to is
+	 * merged into another.  Every state starts out on the list when it is
+	 * given its first transition.
+	 *
+	 * @return the state or NONE if no row has changed since the last call
+	 */
+	public int takeChanged() {
+		if (numChanged == 0) {
+			return NONE;
+		}
+		int state = changed[--numChanged];
+		isChanged[state] = false;
+		return state;
+	}
+
+	/** takes a character off a row's list of unknown characters */
+	private void removeUnknown(int row, int symbol) {
+		int base = row * numSymbols;
+		int last = unknownSymbols[base + --numUnknown[row]];
+		int index = unknownIndex[base + symbol];
+		unknownSymbols[base + index] = last;
+		unknownIndex[base + last] = index;
+		if (!deleted[row]) {
+			totalUnknown--;
+		}
+	}
+
+	/** puts a character on a row's list of unknown characters */
+	private void addUnknown(int row, int symbol) {
+		int base = row * numSymbols;
+		unknownSymbols[base + numUnknown[row]] = symbol;
+		unknownIndex[base + symbol] = numUnknown[row]++;
+		if (!deleted[row]) {
+			totalUnknown++;
+		}
+	}
+
+	/** marks a state and everything it leads to as reachable */
+	private void reach(int state) {
+		if (reachable[state]) {
+			return;
+		}
+		reachable[state] = true;
+		reachRow(state);
+	}
+
+	/** marks everything a reachable state leads to as reachable */
+	private void reachRow(int state) {
+		int top = 0;
+		reachStack[top++] = state;
+		while (top > 0) {
+			int row = reachStack[--top] * numSymbols;
+			for (int i = 0; i < numSymbols; i++) {
+				int target = find(cells[row + i]);
+				if (target >= 0 && !reachable[target]) {
+					reachable[target] = true;
+					reachStack[top++] = target;
+				}
+			}
+		}
+	}
+
+	private void markChanged(int state) {
+		if (!isChanged[state]) {
+			isChanged[state] = true;
+			changed[numChanged++] = state;
+		}
+	}
+
+	/** adds a cell to the list of cells leading to target */
+	private void link(int cell, int target) {
+		refNext[cell] = NONE;
+		refPrev[cell] = refTail[target];
+		if (refTail[target] == NONE) {
+			refHead[target] = cell;
+		}
+		else {
+			refNext[refTail[target]] = cell;
+		}
+		refTail[target] = cell;
+	}
+
+	/** removes a cell from the list of cells leading to target */
+	private void unlink(int cell, int target) {
+		if (refPrev[cell] == NONE) {
+			refHead[target] = refNext[cell];
+		}
+		else {
+			refNext[refPrev[cell]] = refNext[cell];
+		}
+		if (refNext[cell] == NONE) {
+			refTail[target] = refPrev[cell];
+		}
+		else {
+			refPrev[refNext[cell]] = refPrev[cell];
+		}
+	}
+
+	private int root(int state) {
+		while (parent[state] != state) {
+			state = parent[state];
+		}
+		return state;
+	}
+}
@@ -0,0 +1,135 @@
+
+import java.nio.ByteBuffer;
+
+/**
+ * <!-- class PackedTransitionTable -->
+ *
+ * A transition table packed into a single buffer, row after row, using the
+ * fewest bytes per entry that can hold every state number (1 byte for up to
+ * 256 states, 2 for up to 65536, 3 for up to 2^24 and 4 beyond that).  There
+ * is no object per state, so very large machines take a fraction of the
+ * memory of an {@link ArrayTransitionTable} and are read with far fewer
+ * cache misses.
+ *
+ * The buffer can live on the java heap, off the heap (a direct buffer) or in
+ * a memory mapped file.
+ *
+ */
+public class PackedTransitionTable implements TransitionTable {
+
+	private final ByteBuffer entries;
+	private final int numStates;
+	private final int numSymbols;
+	private final int width;   //bytes per entry
+
+	/**
+	 * creates a table in which every state transitions to itself on every
+	 * character
+	 *
+	 * @param offHeap if true the table is allocated outside of the java heap
+	 */
+	public PackedTransitionTable(int numStates, int numSymbols, boolean offHeap) {
+		this.numStates = numStates;
+		this.numSymbols = numSymbols;
+		this.width = widthFor(numStates);
+
+		long size = (long)numStates * numSymbols * width;
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("table too large to pack: " + size + " bytes");
+		}
+		entries = offHeap ? ByteBuffer.allocateDirect((int)size) : ByteBuffer.allocate((int)size);
+
+		for (int i = 0; i < numStates; i++) {
+			for (int j = 0; j < numSymbols; j++) {
+				set(i, j, i);
+			}
+		}
+	}
+
+	/**
+	 * uses an already filled in buffer (for example one mapped from a file)
+	 * without copying it.  The entries must be {@link #widthFor}(numStates)
+	 * bytes wide and in the buffer's byte order.
+	 */
+	public PackedTransitionTable(ByteBuffer entries, int numStates, int numSymbols) {
+		this.numStates = numStates;
+		this.numSymbols = numSymbols;
+		this.width = widthFor(numStates);
+		if ((long)numStates * numSymbols * width > entries.capacity()) {
+			throw new IllegalArgumentException("buffer too small for a "
+					+ numStates + "x" + numSymbols + " table");
+		}
+		this.entries = entries;
+	}
+
+	/**
+	 * @return the number of bytes needed for each entry of a table with the
+	 *         given number of states
+	 */
+	public static int widthFor(int numStates) {
+		if (numStates <= (1 << 8)) return 1;
+		if (numStates <= (1 << 16)) return 2;
+		if (numStates <= (1 << 24)) return 3;
+		return 4;
+	}
+
+	public int numStates() {
+		return numStates;
+	}
+
+	public int numSymbols() {
+		return numSymbols;
+	}
+
+	/** @return the number of bytes used by each entry */
+	public int width() {
+		return width;
+	}
+
+	/** @return the buffer holding the entries */
+	public ByteBuffer buffer() {
+		return entries;
+	}
+
+	public int get(int state, int symbol) {
+		int pos = position(state, symbol);
+		switch (width) {
+			case 1:  return entries.get(pos) & 0xFF;
+			case 2:  return entries.getChar(pos);
+			case 3:  return ((entries.get(pos) & 0xFF) << 16) | entries.getChar(pos + 1);
+			default: return entries.getInt(pos);
+		}
+	}
+
+	public void set(int state, int symbol, int toState) {
+		int pos = position(state, symbol);
+		switch (width) {
+			case 1:
+				entries.put(pos, (byte)toState);
+				break;
+			case 2:
+				entries.putChar(pos, (char)toState);
+				break;
+			case 3:
+				entries.put(pos, (byte)(toState >>> 16));
+				entries.putChar(pos + 1, (char)toState);
+				break;
+			default:
+				entries.putInt(pos, toState);
+		}
+	}
+
+	/**
+	 * @return where the entry for the given state and character starts in
+	 *         the buffer.  Out of range indexes (such as the -1 that
+	 *         Alphabet.indexOf gives for a character not in the alphabet) are
+	 *         rejected rather than reading a neighbouring row.
+	 */
+	private int position(int state, int symbol) {
+		if (state < 0 || state >= numStates || symbol < 0 || symbol >= numSymbols) {
+			throw new IndexOutOfBoundsException("state " + state + ", symbol " + symbol
+					+ ", table " + numStates + "x" + numSymbols);
+		}
+		return (state * numSymbols + symbol) * width;
+	}
+}
@@ -0,0 +1,175 @@
+
+import java.util.Arrays;
+
+/**
+ * <!-- class PairSet -->
+ *
+ * A set of unordered pairs of state IDs, such as the pairs of states the
+ * agent knows are not the same.  (a, b) and (b, a) are the same pair.  Each
+ * pair is packed into a single long and kept in an open addressing hash
+ * table, so adding, removing and looking up a pair take O(1) without
+ * creating any objects.
+ *
+ * When two states are merged, {@link #rename} moves every pair of the state
+ * that goes away over to the state that is kept.  To make that quick the
+ * set also remembers, for each state, the states it has been paired with.
+ *
+ */
+public class PairSet {
+
+	private static final long EMPTY = -1L;
+	private static final int INITIAL_CAPACITY = 16;
+	private static final int NONE = -1;
+
+	// Instance variables
+	private long[] keys;      //the hash table (EMPTY where unused)
+	private int size;
+
+	//For each state a list of the states it has been paired with.  A list
+	//may also name states whose pair has since been removed.
+	private int[] partnerHead = new int[0];  //per state
+	private int[] partner = new int[INITIAL_CAPACITY];
+	private int[] partnerNext = new int[INITIAL_CAPACITY];
+	private int numPartners;
+
+	public PairSet() {
+		keys = new long[INITIAL_CAPACITY];
+		Arrays.fill(keys, EMPTY);
+	}
+
+	/** @return the number of pairs in the set */
+	public int size() {
+		return size;
+	}
+
+	/** @return true if the set has the pair (a, b) */
+	public boolean contains(int a, int b) {
+		if (a < 0 || b < 0) {
+			return false;
+		}
+		return keys[slot(key(a, b))] != EMPTY;
+	}
+
+	/**
+	 * adds the pair (a, b)
+	 *
+	 * @return false if it was already in the set
+	 */
+	public boolean add(int a, int b) {
+		if (a < 0 || b < 0) {
+			throw new IllegalArgumentException("not a pair of states: " + a + ", " + b);
+		}
+		long key = key(a, b);
+		int slot = slot(key);
+		if (keys[slot] != EMPTY) {
+			return false;
+		}
+		keys[slot] = key;
+		size++;
+		if (size * 2 > keys.length) {
+			rehash(keys.length * 2);
+		}
+		addPartner(a, b);
+		if (a != b) {
+			addPartner(b, a);
+		}
+		return true;
+	}
+
+	/**
+	 * removes the pair (a, b)
+	 *
+	 * @return false if it wasn't in the set
+	 */
+	public boolean remove(int a, int b) {
+		if (a < 0 || b < 0) {
+			return false;
+		}
+		int slot = slot(key(a, b));
+		if (keys[slot] == EMPTY) {
+			return false;
+		}
+
+		//Shift later entries of the same run back so that lookups never
+		//stop early at the hole
+		int mask = keys.length - 1;
+		int hole = slot;
+		int next = (hole + 1) & mask;
+		while (keys[next] != EMPTY) {
+			int home = home(keys[next]);
+			//move the entry back unless its home is after the hole
+			if (((next - home) & mask) >= ((next - hole) & mask)) {
+				keys[hole] = keys[next];
+				hole = next;
+			}
+			next = (next + 1) & mask;
+		}
+		keys[hole] = EMPTY;
+		size--;
+		return true;
+	}
+
+	/**
+	 * Replaces the state from with the state to in every pair, because from
+	 * has been merged into to.  A pair of from and to is simply dropped.
+	 */
+	public void rename(int from, int to) {
+		if (from == to || from >= partnerHead.length) {
+			return;
+		}
+		int node = partnerHead[from];
+		partnerHead[from] = NONE;
+		for (; node != NONE; node = partnerNext[node]) {
+			int other = partner[node];
+			if (remove(from, other) && other != to) {
+				add((other == from) ? to : other, to);
+			}
+		}
+	}
+
+	private static long key(int a, int b) {
+		int low = Math.min(a, b);
+		int high = Math.max(a, b);
+		return ((long)low << 32) | high;
+	}
+
+	private int home(long key) {
+		return (int)((key * 0x9E3779B97F4A7C15L) >>> 32) & (keys.length - 1);
+	}
+
+	/** @return the slot that holds key, or the empty slot where it belongs */
+	private int slot(long key) {
+		int mask = keys.length - 1;
+		int slot = home(key);
+		while (keys[slot] != EMPTY && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void rehash(int capacity) {
+		long[] old = keys;
+		keys = new long[capacity];
+		Arrays.fill(keys, EMPTY);
+		for (int i = 0; i < old.length; i++) {
+			if (old[i] != EMPTY) {
+				keys[slot(old[i])] = old[i];
+			}
+		}
+	}
+
+	private void addPartner(int state, int other) {
+		if (state >= partnerHead.length) {
+			int oldLength = partnerHead.length;
+			partnerHead = Arrays.copyOf(partnerHead, Math.max(INITIAL_CAPACITY, state * 2));
+			Arrays.fill(partnerHead, oldLength, partnerHead.length, NONE);
+		}
+		if (numPartners == partner.length) {
+			partner = Arrays.copyOf(partner, numPartners * 2);
+			partnerNext = Arrays.copyOf(partnerNext, numPartners * 2);
+		}
+		partner[numPartners] = other;
+		partnerNext[numPartners] = partnerHead[state];
+		partnerHead[state] = numPartners++;
+	}
+}
@@ -8,49 +8,87 @@ import java.util.ArrayList;
  */
 
 public class Path {
-    //list of steps taken along the path
-	private ArrayList<Character> path;
+    //list of steps taken along the path (path[offset] to path[offset+length-1])
+	private char[] path;
+	private int offset;
+	private int length;
+	//true if path belongs to someone else and must be copied before changing it
+	private boolean shared;
 
 	//Debugging Variable
 	private boolean debug = true;
 
 	/**
-	 * initializes a path with an array of character 
+	 * initializes a path with an array of character
      *
 	 * @param generated
 	 */
 	public Path (ArrayList<Character> generated) {
-		path = new ArrayList<Character>();
+		path = new char[generated.size()];
 		for (int i = 0; i < generated.size(); i++) {
-			path.add(generated.get(i));
+			path[i] = generated.get(i);
 		}
+		length = path.length;
+	}
+
+	/**
+	 * initializes a path with a section of an array of characters
+	 */
+	public Path (char[] generated, int offset, int count) {
+		path = new char[count];
+		System.arraycopy(generated, offset, path, 0, count);
+		length = count;
+	}
+
+	private Path() {
+	}
+
+	/**
+	 * creates a path that reads a section of an array of characters without
+	 * copying it.  The array must not change while the path is in use; the
+	 * path itself copies the array before it changes it.
+	 */
+	public static Path view(char[] chars, int offset, int count) {
+		if (offset < 0 || count < 0 || offset + count > chars.length) {
+			throw new IndexOutOfBoundsException("offset " + offset + ", count " + count
+					+ ", length " + chars.length);
+		}
+		Path result = new Path();
+		result.path = chars;
+		result.offset = offset;
+		result.length = count;
+		result.shared = true;
+		return result;
 	}
 
     /**
      * creates a copy of this object
      */
 	public Path copy() {
-		ArrayList<Character> createdCopy = new ArrayList<Character>();
-		for (int i = 0; i < path.size(); i++) {
-			createdCopy.add(path.get(i));
-		}
-		return new Path(createdCopy);
+		return new Path(path, offset, length);
 	}
 
 	public int size() {
-		return path.size();
+		return length;
 	}
 
 	public char get(int index) {
-		return path.get(index);
+		if (index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + length);
+		}
+		return path[offset + index];
+	}
+
+	/**
+	 * copies the steps of this path into an array, starting at the given
+	 * index in it
+	 */
+	public void getChars(char[] dest, int destBegin) {
+		System.arraycopy(path, offset, dest, destBegin, length);
 	}
 
 	public String toString() {
-		String result = "";
-		for (int i = 0; i < path.size(); i++) {
-			result += path.get(i);
-		}
-		return result;
+		return new String(path, offset, length);
 	}
 
 	public void printpath() {
@@ -60,10 +98,36 @@ public class Path {
 	}
 
 	public void remove(int index) {
-		path.remove(index);
+		if (index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + length);
+		}
+		if (shared) {
+			reallocate(length);
+		}
+		System.arraycopy(path, index + 1, path, index, length - index - 1);
+		length--;
 	}
 
 	public void add(int index, char toAdd) {
-		path.add(index, toAdd);
+		if (index < 0 || index > length) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + length);
+		}
+		if (shared || length == path.length) {
+			reallocate(Math.max(8, length * 2));
+		}
+		System.arraycopy(path, index, path, index + 1, length - index);
+		path[index] = toAdd;
+		length++;
+	}
+
+	/**
+	 * moves the path into a new array of its own with the given capacity
+	 */
+	private void reallocate(int capacity) {
+		char[] own = new char[capacity];
+		System.arraycopy(path, offset, own, 0, length);
+		path = own;
+		offset = 0;
+		shared = false;
 	}
 }
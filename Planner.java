@@ -0,0 +1,175 @@
+
+import java.util.Arrays;
+
+/**
+ * <!-- class Planner -->
+ *
+ * Finds shortest paths through a {@link LearnedTransitionTable}.
+ *
+ * A plan to a target state is found by a breadth first search backwards from
+ * the target, following the table's lists of the transitions that lead to
+ * each state.  The search records for every state the first character of its
+ * shortest path to the target, which answers the question for every start
+ * state at once.  These results are kept for a few targets at a time and
+ * thrown away only when the table's {@link LearnedTransitionTable#version
+ * version} changes, so asking for the same plan again before the agent
+ * learns something new costs next to nothing.
+ *
+ * Ties are broken the same way every time: states found at the same step of
+ * the search are visited in order of their IDs, and a state that has several
+ * transitions to the same state uses the first character in the alphabet.
+ * The goal state (0) is never the start of a path.
+ *
+ * The planner can also search forwards from a state for the closest state
+ * that still has unknown transitions (see {@link #nearestUnknown}).
+ *
+ */
+public class Planner {
+
+	public static final int NONE = -1;
+
+	//number of targets whose searches are kept (a power of two)
+	private static final int SLOTS = 8;
+
+	// Instance variables
+	private final LearnedTransitionTable table;
+
+	//For each slot the target whose search it holds, the table version the
+	//search was made against and, for every state, the character (index) to
+	//take first to reach the target or NONE.  The target's own entry is the
+	//start of the shortest cycle back to it.
+	private final int[] slotTarget = new int[SLOTS];
+	private final int[] slotVersion = new int[SLOTS];
+	private final int[][] slotSymbol = new int[SLOTS][];
+
+	//scratch space for a search
+	private int[] queue = new int[0];
+	private int[] batch = new int[0];
+	private int[] batchOf = new int[0];  //the queue position that last found each state
+	private int[] seen = new int[0];     //the search that last found each state
+	private int searches;
+
+	public Planner(LearnedTransitionTable table) {
+		this.table = table;
+		Arrays.fill(slotTarget, NONE);
+	}
+
+	/**
+	 * @return the index of the character to take from the given state to
+	 *         reach the target by a shortest path, or NONE if the target can't
+	 *         be reached.  If state is the target this is the first step of
+	 *         the shortest cycle back to it.
+	 */
+	public int nextSymbol(int state, int target) {
+		int[] symbol = search(table.find(target));
+		state = table.find(state);
+		return (state < symbol.length) ? symbol[state] : NONE;
+	}
+
+	/**
+	 * Searches forwards from the given state (trying characters in alphabet
+	 * order) for the closest state that has an unknown transition and hasn't
+	 * been deleted.
+	 *
+	 * @return that state (start itself if it qualifies) or NONE if there is
+	 *         no such state that can be reached
+	 */
+	public int nearestUnknown(int start) {
+		int numStates = table.numStates();
+		if (seen.length < numStates) {
+			seen = Arrays.copyOf(seen, numStates);
+		}
+		if (queue.length < numStates) {
+			queue = new int[numStates];
+			batch = new int[numStates];
+			batchOf = new int[numStates];
+		}
+		searches++;
+
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = table.find(start);
+		seen[queue[0]] = searches;
+		while (head < tail) {
+			int state = queue[head++];
+			if (table.numUnknown(state) > 0 && !table.isDeleted(state)) {
+				return state;
+			}
+			if (state == 0) {
+				continue;  //never plan through the goal
+			}
+			for (int i = 0; i < table.numSymbols(); i++) {
+				int next = table.get(state, i);
+				if (next >= 0 && seen[next] != searches) {
+					seen[next] = searches;
+					queue[tail++] = next;
+				}
+			}
+		}
+		return NONE;
+	}
+
+	/**
+	 * @return the search results for the given target, searching only if
+	 *         there aren't any for the table as it is now
+	 */
+	private int[] search(int target) {
+		int slot = target & (SLOTS - 1);
+		//(states added since have no transitions, so they can't change it)
+		if (slotTarget[slot] == target && slotVersion[slot] == table.version()) {
+			return slotSymbol[slot];
+		}
+
+		int numStates = table.numStates();
+		int[] symbol = slotSymbol[slot];
+		if (symbol == null || symbol.length != numStates) {
+			symbol = new int[numStates];
+		}
+		Arrays.fill(symbol, NONE);
+		if (queue.length < numStates) {
+			queue = new int[numStates];
+			batch = new int[numStates];
+			batchOf = new int[numStates];
+		}
+		Arrays.fill(batchOf, 0, numStates, NONE);
+
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = target;
+		while (head < tail) {
+			int at = head++;
+			int state = queue[at];
+
+			//Collect the states with a transition to this one that don't
+			//have a path yet, each with its first such character
+			int found = 0;
+			for (int cell = table.firstReference(state); cell != NONE;
+					cell = table.nextReference(cell)) {
+				int from = table.cellState(cell);
+				int c = table.cellSymbol(cell);
+				if (table.isMerged(from)) {
+					continue;
+				}
+				if (batchOf[from] == at) {
+					symbol[from] = Math.min(symbol[from], c);
+				}
+				else if (symbol[from] == NONE && from != 0) {
+					symbol[from] = c;
+					batchOf[from] = at;
+					if (from != target) {
+						batch[found++] = from;
+					}
+				}
+			}
+
+			Arrays.sort(batch, 0, found);
+			System.arraycopy(batch, 0, queue, tail, found);
+			tail += found;
+		}
+
+		slotTarget[slot] = target;
+		slotVersion[slot] = table.version();
+		slotSymbol[slot] = symbol;
+		return symbol;
+	}
+}
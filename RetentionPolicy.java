@@ -0,0 +1,85 @@
+
+/**
+ * <!-- class RetentionPolicy -->
+ *
+ * How much of its past an agent's EpisodicMemory keeps.  An unbounded memory
+ * keeps every episode.  A bounded memory holds at most maxEpisodes; when it
+ * fills up it forgets its oldest episodes until at most half of that is left,
+ * so forgetting costs O(1) per episode on average.  Each time it forgets it
+ * can also:
+ *
+ * <ul>
+ *   <li>keep only the last goalSegments goal-to-goal segments (plus the
+ *       segment in progress), even if that leaves less than half</li>
+ *   <li>shorten every run of NO_TRANSITION episodes to at most maxIdleRun
+ *       episodes.  The newest quarter of memory is never shortened so the
+ *       agent can still look back over its latest moves.</li>
+ * </ul>
+ *
+ * Both only happen when memory fills up, so until then (and with a large
+ * maxEpisodes that may be never) memory holds every segment and every idle
+ * run.
+ *
+ * Like EnvironmentConfig, a policy never changes once it has been created.
+ *
+ */
+public final class RetentionPolicy {
+
+	public static final int MIN_EPISODES = 16;
+
+	/** keep every episode */
+	public static final RetentionPolicy UNBOUNDED = new RetentionPolicy(Integer.MAX_VALUE, 0, 0);
+
+	// Instance variables
+	public final int maxEpisodes;   //most episodes memory ever holds
+	public final int goalSegments;  //goal segments to keep (0 means as many as fit)
+	public final int maxIdleRun;    //longest NO_TRANSITION run to keep (0 means any)
+
+	/**
+	 * creates a sliding window over the last maxEpisodes episodes
+	 */
+	public RetentionPolicy(int maxEpisodes) {
+		this(maxEpisodes, 0, 0);
+	}
+
+	public RetentionPolicy(int maxEpisodes, int goalSegments, int maxIdleRun) {
+		if (maxEpisodes < MIN_EPISODES) {
+			throw new IllegalArgumentException("maxEpisodes must be at least "
+					+ MIN_EPISODES + ": " + maxEpisodes);
+		}
+		if (goalSegments < 0) {
+			throw new IllegalArgumentException("goalSegments must not be negative: " + goalSegments);
+		}
+		if (maxIdleRun < 0) {
+			throw new IllegalArgumentException("maxIdleRun must not be negative: " + maxIdleRun);
+		}
+
+		this.maxEpisodes = maxEpisodes;
+		this.goalSegments = goalSegments;
+		this.maxIdleRun = maxIdleRun;
+	}
+
+	/**
+	 * @return a copy of this policy that keeps at most the given number of goal segments
+	 */
+	public RetentionPolicy withGoalSegments(int goalSegments) {
+		return new RetentionPolicy(maxEpisodes, goalSegments, maxIdleRun);
+	}
+
+	/**
+	 * @return a copy of this policy that shortens NO_TRANSITION runs to the given length
+	 */
+	public RetentionPolicy withMaxIdleRun(int maxIdleRun) {
+		return new RetentionPolicy(maxEpisodes, goalSegments, maxIdleRun);
+	}
+
+	/** @return true if memory never forgets anything under this policy */
+	public boolean isUnbounded() {
+		return maxEpisodes == Integer.MAX_VALUE;
+	}
+
+	public String toString() {
+		return "[maxEpisodes=" + (isUnbounded() ? "unbounded" : "" + maxEpisodes)
+			+ " goalSegments=" + goalSegments + " maxIdleRun=" + maxIdleRun + "]";
+	}
+}
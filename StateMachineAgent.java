@@ -1,6 +1,9 @@
+import java.io.File;
+import java.io.IOException;
 
 import java.util.ArrayList;
-import java.util.Random;
+import java.util.Arrays;
+import java.util.SplittableRandom;
 import java.util.Vector;
 
 
@@ -10,25 +13,22 @@ public class StateMachineAgent {
 	private Path best = null;  //best path from init to goal the agent knows atm
 	private ArrayList<Character> possibleBest;
 	private StateMachineEnvironment env;
-	private char[] alphabet;
-	private ArrayList<Episode> episodicMemory;
+	private SplittableRandom random;  //used for all of the agent's random choices
+	private Alphabet alphabet;
+	private EpisodicMemory episodicMemory;
 	private Vector<Integer> addedInPlan;
 
-	//These are used as indexes into the the sensor array
-	private static final int IS_NEW_STATE = 0;
-	private static final int IS_GOAL = 1;
-
-	//Sensor values
-	public static final int NO_TRANSITION = 0;
-	public static final int TRANSITION_ONLY = 1;
-	public static final int GOAL = 2;
+	//Sensor values (as encoded by the environment)
+	public static final int NO_TRANSITION = StateMachineEnvironment.NO_TRANSITION;
+	public static final int TRANSITION_ONLY = StateMachineEnvironment.TRANSITION_ONLY;
+	public static final int GOAL = StateMachineEnvironment.GOAL;
 
 	//Global state data
-	private ArrayList<int[]> equivalentStates;
-	private ArrayList<int[]> nonEquivalentStates;
-	private ArrayList<int[]> agentTransitionTable;
-	public static final int UNKNOWN_TRANSITION = -1; //Used to represent an unknown transition in the transition table
-	public static final int DELETED = -2;            //Indicates that a given row in the transition table has been deleted
+	private PairSet equivalentStates;     //merged states (by the IDs they had then)
+	private PairSet nonEquivalentStates;  //states known to be different
+	private LearnedTransitionTable agentTransitionTable;
+	private Planner planner;  //shortest paths through agentTransitionTable
+	public static final int UNKNOWN_TRANSITION = LearnedTransitionTable.UNKNOWN; //Used to represent an unknown transition in the transition table
 	public static final int GOAL_STATE = 0;
 	public static final int INIT_STATE = 1;
 	public static final char UNKNOWN_COMMAND = ' '; //a character guaranteed not
@@ -42,6 +42,10 @@ public class StateMachineAgent {
 	private ArrayList<Episode> currentPlan = null;
 	//next command to execute in the current plan
 	private int planIndex = -1;
+
+	//the number (see EpisodicMemory.numAdded) of the episode the current plan
+	//started from
+	private long planStart;
 	// The hypothesis that the agent is currently testing
 	// The agent believes currentHypothesis[0] == currentHypothesis[1] where each entry is a state in the FSM
 	private int[] currentHypothesis;
@@ -59,36 +63,99 @@ public class StateMachineAgent {
 	// Turns debug printing on and off
 	boolean debug = true;
 
+	//Reusable buffers for replaying whole command sequences (see env.tickAll)
+	private char[] commandBuffer = new char[0];
+	private int[] sensorBuffer = new int[0];
+	private int[] expectedBuffer = new int[0];
+
+	/**
+	 * How {@link #bruteForce} shortens the path to the goal it finds
+	 */
+	public enum Trim {
+		/** remove one character at a time (see trimPath) */
+		ONE_AT_A_TIME,
+		/** remove ever smaller pieces of the path (see minimizePath) */
+		DELTA_DEBUGGING
+	}
+	private Trim trim = Trim.DELTA_DEBUGGING;
+
+	//how many moves (and their sensor values) must be the same at two places
+	//in a path before minimizePath guesses that the path went round a cycle
+	public static final int CYCLE_WINDOW = 8;
+
 	//DEBUG
 	int reorientFailures = 0;
 	int resetCount = 0;
+	int tickCount = 0;  //moves made in the environment
 
 	/**
-	 * The constructor for the agent simply initializes it's instance variables
+	 * The default constructor places the agent in a small hard coded test
+	 * environment
 	 */
 	public StateMachineAgent() {
+		this(testEnvironment());
+	}
+
+	/**
+	 * @return the small hard coded environment used for testing
+	 */
+	private static StateMachineEnvironment testEnvironment() {
 		//int[][] testTransitions = new int[][] {{2, 1, 0},{1, 0, 2},{2, 2, 2}};
-		int[][] testTransitions = new int[][]{{0,1},{1,2},{2,2}};
 		//int[][] testTransitions = new int[][]{{0,1},{1,1}};
 		//env = new StateMachineEnvironment(testTransitions, 3, 3);
+		return new StateMachineEnvironment(new int[][]{{0,1},{1,2},{2,2}}, 2, 2);
+	}
+
+	/**
+	 * Creates a random environment and an agent to explore it for a single
+	 * trial.  Everything random in the trial (generating the environment and
+	 * the agent's own choices) comes from independent streams split off the
+	 * given seed, so running a trial again with the same seed repeats it
+	 * exactly and trials on different threads share nothing.
+	 *
+	 * @param config dimensions of the environment
+	 * @param seed   the seed for the whole trial
+	 */
+	public static StateMachineAgent newTrial(EnvironmentConfig config, long seed) {
+		SplittableRandom trialRandom = new SplittableRandom(seed);
+		StateMachineEnvironment trialEnv = new StateMachineEnvironment(config, trialRandom.split());
+		return new StateMachineAgent(trialEnv, trialRandom.split());
+	}
+
+	/**
+	 * The constructor for the agent simply initializes it's instance variables.
+	 * Each agent only touches its own environment so many agent/environment
+	 * pairs can be run at once.
+	 *
+	 * @param env the environment the agent will explore
+	 */
+	public StateMachineAgent(StateMachineEnvironment env) {
+		this(env, new SplittableRandom());
+	}
+
+	/**
+	 * @param env the environment the agent will explore
+	 * @param random source of randomness for the agent's actions.  The agent
+	 *               takes ownership of it.
+	 */
+	public StateMachineAgent(StateMachineEnvironment env, SplittableRandom random) {
+		this.random = random;
 		addedInPlan = new Vector<Integer>();
-		env = new StateMachineEnvironment(testTransitions, 2, 2);
+		this.env = env;
 		alphabet = env.getAlphabet();
-		episodicMemory = new ArrayList<Episode>();
+		episodicMemory = new EpisodicMemory();
 		//Need a first episode for makeMove
-		episodicMemory.add(new Episode(UNKNOWN_COMMAND, NO_TRANSITION, INIT_STATE));
-		equivalentStates = new ArrayList<int[]>();
-		nonEquivalentStates = new ArrayList<int[]>();
-		agentTransitionTable = new ArrayList<int[]>();
-		int[] zeroRow = new int[alphabet.length];
-		int[] firstState = new int[alphabet.length];
-		//%%%TODO: Make the first element in a transition row the number of that state
-		for (int i = 0; i < zeroRow.length; i++) {
-			zeroRow[i] = /*UNKNOWN_TRANSITION*/0;
-			firstState[i] = UNKNOWN_TRANSITION;
+		episodicMemory.add(UNKNOWN_COMMAND, NO_TRANSITION, INIT_STATE);
+		equivalentStates = new PairSet();
+		nonEquivalentStates = new PairSet();
+		agentTransitionTable = new LearnedTransitionTable(alphabet.size());
+		planner = new Planner(agentTransitionTable);
+		agentTransitionTable.addState();  //GOAL_STATE
+		agentTransitionTable.addState();  //INIT_STATE
+		for (int i = 0; i < alphabet.size(); i++) {
+			agentTransitionTable.set(GOAL_STATE, i, /*UNKNOWN_TRANSITION*/0);
 		}
-		agentTransitionTable.add(zeroRow);
-		agentTransitionTable.add(firstState);
+		agentTransitionTable.trackReachableFrom(INIT_STATE);
 		possibleBest = new ArrayList<Character>();
 	}
 
@@ -106,7 +173,12 @@ public class StateMachineAgent {
 
 		// Trim moves off the successful path until we only have the
 		// necessary moves remaining. Make this the new best path
-		best = trimPath(best);
+		if (trim == Trim.ONE_AT_A_TIME) {
+			best = trimPath(best);
+		}
+		else {
+			best = minimizePath(best);
+		}
 
 		// // DEBUG: Print out what the agent has determined the shortests path is
 		//best.printpath();
@@ -121,16 +193,12 @@ public class StateMachineAgent {
 	public Path generatePath() {
 		ArrayList<Character> randomPath = new ArrayList<Character>();
 
-		//Use our reset method to make random actions until we reach the goal
-		reset();
+		//Use our reset method to make random actions until we reach the goal.
+		//The walk is recorded as it goes rather than read back out of memory
+		//afterwards, since a bounded memory may forget some of it on the way.
+		reset(randomPath);
 		resetCount++;
 
-		//Pull the episodes we've just created out of memory and parse them into
-		//a path
-		for (int i = 0; i < episodicMemory.size(); i++){
-			randomPath.add(i, episodicMemory.get(i).command);
-		}
-
 		best = new Path(randomPath);
 		return best;
 	}
@@ -150,27 +218,22 @@ public class StateMachineAgent {
 	 * 		false if it did not
 	 */
 	public boolean tryPath(Path best) {
-		boolean[] sensors;
-		// Enter each character in the path
-		for (int i = 0; i < best.size(); i++) {
-			sensors = env.tick(best.get(i));
-			int encodedSensorResult = encodeSensors(sensors);
-			episodicMemory.add(new Episode(best.get(i), encodedSensorResult, INIT_STATE));
-
-			if (sensors[IS_GOAL]) {
-				//DEBUG
-				//System.out.println("Given path works");
-
-				// If we successfully find the goal, return true
-				return true;
-			}
+		// Enter the whole path at once
+		int[] sensors = sensorBuffer(best.size());
+		int goalIndex = env.tickAll(best, sensors);
+
+		// Record each step that was actually taken
+		int steps = (goalIndex == -1) ? best.size() : goalIndex + 1;
+		for (int i = 0; i < steps; i++) {
+			episodicMemory.add(best.get(i), sensors[i], INIT_STATE);
 		}
+		tickCount += steps;
 
 		//DEBUG
-		//System.out.println("Given path fails");
+		//System.out.println("Given path " + (goalIndex != -1 ? "works" : "fails"));
 
-		// If we make it through the entire loop, the path was unsuccessful
-		return false;
+		// If we found the goal the path was successful
+		return goalIndex != -1;
 	}
 
 	/**
@@ -217,19 +280,312 @@ public class StateMachineAgent {
 		return trimmed;
 	}
 
+	/**
+	 * minimizePath takes in a path (which should be successful) and removes
+	 * as much of it as it can, delta debugging style: it tries removing each
+	 * half of the path, then each quarter and so on down to single
+	 * characters, keeping every removal after which the path still reaches
+	 * the goal.  Like trimPath, the result is a path that stops working if
+	 * any one character is removed, but it usually takes far fewer moves and
+	 * resets to get there.
+	 *
+	 * Every time the path is tried, any move that didn't change the state
+	 * (the agent sensed NO_TRANSITION) and everything after the goal is
+	 * dropped from it without having to try again.  Before removing pieces
+	 * blindly it also tries cutting out the stretches that the sensors say
+	 * probably went round in a cycle (see {@link #removeCycles}).
+	 *
+	 * @param toMinimize
+	 * 		The path to remove characters from
+	 * @return
+	 * 		toMinimize reduced to the least amount of characters possible (not including equivalencies)
+	 */
+	public Path minimizePath(Path toMinimize) {
+		int length = toMinimize.size();
+		char[] current = new char[length];
+		char[] candidate = new char[length];
+		int[] sensors = new int[length];
+		int[] candidateSensors = new int[length];
+		for (int i = 0; i < length; i++) {
+			current[i] = toMinimize.get(i);
+		}
+
+		// Find out what the path actually does
+		int goalIndex = enterMoves(current, length, sensors);
+		if (goalIndex == -1) {
+			recoverFromFailedTry();
+			return toMinimize.copy();
+		}
+		length = removeIdleMoves(current, goalIndex + 1, sensors);
+
+		int chunks = 2;
+		boolean cyclesRemoved = false;
+		while (length > 1) {
+			if (!cyclesRemoved) {
+				length = removeCycles(current, length, sensors);
+				cyclesRemoved = true;
+			}
+
+			chunks = Math.min(chunks, length);
+			boolean removed = false;
+			for (int i = 0; i < chunks && !removed; i++) {
+				// Try the path without the i-th chunk
+				int from = (int)((long)i * length / chunks);
+				int to = (int)((long)(i + 1) * length / chunks);
+				System.arraycopy(current, 0, candidate, 0, from);
+				System.arraycopy(current, to, candidate, from, length - to);
+				goalIndex = enterMoves(candidate, length - (to - from), candidateSensors);
+
+				if (goalIndex != -1) {
+					// The chunk wasn't needed
+					char[] swap = current;
+					current = candidate;
+					candidate = swap;
+					int[] swapSensors = sensors;
+					sensors = candidateSensors;
+					candidateSensors = swapSensors;
+					length = removeIdleMoves(current, goalIndex + 1, sensors);
+					chunks = Math.max(chunks - 1, 2);
+					removed = true;
+				}
+				else {
+					recoverFromFailedTry();
+				}
+			}
+
+			// Every chunk is needed, so try smaller ones
+			if (!removed) {
+				if (chunks == length) {
+					break;
+				}
+				chunks = Math.min(chunks * 2, length);
+			}
+		}
+		return new Path(current, 0, length);
+	}
+
+	/**
+	 * Tries cutting cycles out of a path that works.  When the last
+	 * CYCLE_WINDOW moves, and the sensor values they gave, are the same at
+	 * two places in the path, the agent was probably in the same state at
+	 * both, so the moves in between can probably go.  Each such cut (the
+	 * longest one ending at each place) is tried and kept if the path still
+	 * reaches the goal.
+	 *
+	 * @param moves    the path (changed in place)
+	 * @param length   the length of the path
+	 * @param sensors  the sensor value of each move of the path (changed
+	 *                 along with it)
+	 * @return the length of the path that is left
+	 */
+	private int removeCycles(char[] moves, int length, int[] sensors) {
+		char[] candidate = new char[length];
+		int[] candidateSensors = new int[length];
+
+		//Open addressing table from the hash of each window of moves to the
+		//last place a window with that hash ended.  Every other place it
+		//ended is chained from there through earlierEnd.
+		int capacity = 16;
+		while (capacity < length * 2) {
+			capacity *= 2;
+		}
+		int mask = capacity - 1;
+		long[] hashes = new long[capacity];
+		int[] lastEnd = new int[capacity];
+		int[] earlierEnd = new int[length];
+		Arrays.fill(lastEnd, -1);
+
+		int end = CYCLE_WINDOW - 1;
+		while (end < length) {
+			long hash = 0;
+			for (int i = end - CYCLE_WINDOW + 1; i <= end; i++) {
+				hash = (hash + ((moves[i] << 5) | (sensors[i] & 0x1F))) * 0x9E3779B97F4A7C15L;
+			}
+			int slot = (int)(hash >>> 32) & mask;
+			while (lastEnd[slot] != -1 && hashes[slot] != hash) {
+				slot = (slot + 1) & mask;
+			}
+
+			// The first place the same window ended (if any) gives the longest cut
+			int start = -1;
+			for (int e = lastEnd[slot]; e != -1; e = earlierEnd[e]) {
+				if (sameWindow(moves, sensors, e, end)) {
+					start = e;
+				}
+			}
+			earlierEnd[end] = lastEnd[slot];
+			hashes[slot] = hash;
+			lastEnd[slot] = end;
+			if (start == -1) {
+				end++;
+				continue;
+			}
+
+			// Try the path without the moves after start up to end
+			System.arraycopy(moves, 0, candidate, 0, start + 1);
+			System.arraycopy(moves, end + 1, candidate, start + 1, length - end - 1);
+			int count = length - (end - start);
+			int goalIndex = enterMoves(candidate, count, candidateSensors);
+			if (goalIndex == -1) {
+				recoverFromFailedTry();
+				end++;
+				continue;
+			}
+
+			// The cycle wasn't needed; look again in what is left
+			System.arraycopy(candidate, 0, moves, 0, goalIndex + 1);
+			System.arraycopy(candidateSensors, 0, sensors, 0, goalIndex + 1);
+			length = removeIdleMoves(moves, goalIndex + 1, sensors);
+			Arrays.fill(lastEnd, -1);
+			end = CYCLE_WINDOW - 1;
+		}
+		return length;
+	}
+
+	/** @return true if the CYCLE_WINDOW moves (and sensors) ending at a and b are the same */
+	private boolean sameWindow(char[] moves, int[] sensors, int a, int b) {
+		for (int i = 0; i < CYCLE_WINDOW; i++) {
+			if (moves[a - i] != moves[b - i] || sensors[a - i] != sensors[b - i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gets back to the goal after trying a path that didn't reach it
+	 */
+	private void recoverFromFailedTry() {
+		smartReset();
+		resetCount++;
+
+		//Set the best path equal to the reset path if the reset path is shorter
+		Path maybeBest = getMostRecentPath();
+		if (best == null || maybeBest.size() < best.size()) {
+			best = maybeBest;
+		}
+	}
+
+	/**
+	 * Removes the moves of a path that didn't change the state
+	 *
+	 * @param moves    the path (changed in place)
+	 * @param count    how many moves of it to keep
+	 * @param sensors  the sensor value of each of those moves (changed along
+	 *                 with the moves)
+	 * @return the number of moves left
+	 */
+	private int removeIdleMoves(char[] moves, int count, int[] sensors) {
+		int kept = 0;
+		for (int i = 0; i < count; i++) {
+			if (sensors[i] != NO_TRANSITION) {
+				moves[kept] = moves[i];
+				sensors[kept] = sensors[i];
+				kept++;
+			}
+		}
+		return kept;
+	}
+
+	/**
+	 * Enters moves in the environment (stopping at the goal) and records each
+	 * step that was taken in episodic memory
+	 *
+	 * @param moves    the moves to make
+	 * @param count    how many of them to make
+	 * @param sensors  receives the sensor value of each move made
+	 * @return the index of the move that reached the goal or -1
+	 */
+	private int enterMoves(char[] moves, int count, int[] sensors) {
+		int goalIndex = env.tickAll(moves, 0, count, sensors);
+
+		int steps = (goalIndex == -1) ? count : goalIndex + 1;
+		for (int i = 0; i < steps; i++) {
+			episodicMemory.add(moves[i], sensors[i], INIT_STATE);
+		}
+		tickCount += steps;
+		return goalIndex;
+	}
+
+	/**
+	 * Chooses how bruteForce shortens the path it finds
+	 */
+	public void setTrim(Trim trim) {
+		this.trim = trim;
+	}
+
+	/**
+	 * @return the number of moves the agent has made in the environment,
+	 *         which is how the cost of learning is measured
+	 */
+	public int getTickCount() {
+		return tickCount;
+	}
+
+	/**
+	 * @return the number of times the agent has had to find its way back to
+	 *         the goal after getting lost
+	 */
+	public int getResetCount() {
+		return resetCount;
+	}
+
+	/**
+	 * Sets how much of its past the agent remembers.  By default it remembers
+	 * everything, which is fine for short runs but not for long ones.
+	 */
+	public void setRetentionPolicy(RetentionPolicy policy) {
+		episodicMemory.setRetentionPolicy(policy);
+	}
+
+	/**
+	 * Writes everything the agent remembers, from now on, to the given log
+	 * (see EpisodeLog.replay to read it back)
+	 */
+	public void setEpisodeLog(EpisodeLog log) {
+		episodicMemory.setLog(log);
+	}
+
+	/**
+	 * Carries on an earlier run whose episodes have been read back into a new
+	 * memory with EpisodeLog.replay.  Call it before the agent makes any moves
+	 * (and before giving it a log), with the environment in its initial state.
+	 *
+	 * Only the episodes come back, so the agent can use its old experience to
+	 * find its way to the goal again.  Its transition table was never saved,
+	 * so it starts empty and is relearned as the agent explores.  The state
+	 * IDs of the old episodes refer to the old table, so they are cleared
+	 * (set to UNKNOWN_TRANSITION) in memory.
+	 */
+	public void resume(EpisodicMemory memory) {
+		for (int i = 0; i < memory.size(); i++) {
+			memory.setStateID(i, UNKNOWN_TRANSITION);
+		}
+
+		//Need a first episode for makeMove
+		memory.add(UNKNOWN_COMMAND, NO_TRANSITION, INIT_STATE);
+		memory.setRetentionPolicy(episodicMemory.getRetentionPolicy());
+		episodicMemory = memory;
+	}
+
+	/**
+	 * Carries on writing to the log that the agent's memory was replayed from
+	 * (see {@link #resume}) without writing the old episodes again
+	 */
+	public void continueEpisodeLog(EpisodeLog log) {
+		episodicMemory.continueLog(log);
+	}
+
 	/**
 	 * getMostRecentPath
 	 * 
-	 * Gets the most recent path present in Episodic Memory
+	 * Gets the most recent path present in Episodic Memory.  The path is read
+	 * straight out of memory rather than copied.
 	 * @return The most recent path in episodic memory
 	 */
 	public Path getMostRecentPath() {
 		int lastGoal = findLastGoal(episodicMemory.size() - 2) + 1;
-		ArrayList<Character> pathChars = new ArrayList<Character>();
-		for (int i = lastGoal; i < episodicMemory.size(); i++) {
-			pathChars.add(episodicMemory.get(i).command);
-		}
-		return new Path(pathChars);
+		return episodicMemory.commandPath(lastGoal, episodicMemory.size());
 	}
 
 	/**
@@ -237,22 +593,29 @@ public class StateMachineAgent {
 	 * This will be changed to a more intelligent scheme later on
 	 */
 	public void reset() {
+		reset(null);
+	}
+
+	/**
+	 * Same as {@link #reset()} but also adds every move it makes to the end
+	 * of walk (unless it's null)
+	 */
+	private void reset(ArrayList<Character> walk) {
 		char toCheck;
-		boolean[] sensors;
 		int encodedSensorResult;
 
 		//Currently, the agent will just move randomly until it reaches the goal
 		//and magically resets itself
 		do {
 			toCheck = generateRandomAction();
-			sensors = env.tick(toCheck);
-			encodedSensorResult = encodeSensors(sensors);
-			episodicMemory.add(new Episode(toCheck, encodedSensorResult, INIT_STATE));
-			/*if (episodicMemory.size() > 500000000) {
-				System.exit(0);
-			}*/
-
-		} while (!sensors[IS_GOAL]); // Keep going until we've found the goal
+			encodedSensorResult = env.tickEncoded(toCheck);
+			episodicMemory.add(toCheck, encodedSensorResult, INIT_STATE);
+			tickCount++;
+			if (walk != null) {
+				walk.add(toCheck);
+			}
+
+		} while (encodedSensorResult != GOAL); // Keep going until we've found the goal
 	}
 
 	/**
@@ -261,11 +624,40 @@ public class StateMachineAgent {
 	 * @return A random action for the Agent to take
 	 */
 	public char generateRandomAction() {
-		Random random = new Random();
-		return alphabet[random.nextInt(alphabet.length)];
+		return alphabet.symbol(random.nextInt(alphabet.size()));
 	}
 
 
+	/**
+	 * @return a buffer with room for at least 'size' sensor values
+	 */
+	private int[] sensorBuffer(int size) {
+		if (sensorBuffer.length < size) {
+			sensorBuffer = new int[Math.max(size, sensorBuffer.length * 2)];
+		}
+		return sensorBuffer;
+	}
+
+	/**
+	 * @return a second buffer with room for at least 'size' sensor values
+	 */
+	private int[] expectedBuffer(int size) {
+		if (expectedBuffer.length < size) {
+			expectedBuffer = new int[Math.max(size, expectedBuffer.length * 2)];
+		}
+		return expectedBuffer;
+	}
+
+	/**
+	 * @return a buffer with room for at least 'size' commands
+	 */
+	private char[] commandBuffer(int size) {
+		if (commandBuffer.length < size) {
+			commandBuffer = new char[Math.max(size, commandBuffer.length * 2)];
+		}
+		return commandBuffer;
+	}
+
 	/**
 	 * A more intelligent reset for the agent that will cause the agent to try to find a path to the goal
 	 * by examining its episodic memory
@@ -292,36 +684,35 @@ public class StateMachineAgent {
 	 */
 	public boolean smartResetHelper() {
 		int matchedStringEndIndex = maxMatchedStringIndex();
-		char transitionCharacter;
-		boolean[] sensors;
-		int sensorEncoding;
 		int lastGoal = findLastGoal(episodicMemory.size()) + 1;
-		String action;
 		if (matchedStringEndIndex == -1) {
 			return false;
 		}
-		for (int i = matchedStringEndIndex + 1; i < lastGoal; i++) {
-			transitionCharacter = episodicMemory.get(i).command;
-			sensors = env.tick(transitionCharacter);
-			sensorEncoding = encodeSensors(sensors);
-			action = "" + transitionCharacter + sensorEncoding;
-			episodicMemory.add(new Episode(transitionCharacter, sensorEncoding, INIT_STATE));
-			if (sensorEncoding == GOAL) {
-				return true;
-			}
 
-			//System.err.println(episodicMemory.get(i) + " " + action);
-			if (!episodicMemory.get(i).equals(action)) {
-				//We're lost, so attempt another reset
-				return false;
-			}
+		//Replay the commands that followed the match last time
+		int count = lastGoal - (matchedStringEndIndex + 1);
+		if (count <= 0) {
+			return false;
+		}
+		char[] commands = commandBuffer(count);
+		int[] expected = expectedBuffer(count);
+		for (int i = 0; i < count; i++) {
+			commands[i] = episodicMemory.command(matchedStringEndIndex + 1 + i);
+			expected[i] = episodicMemory.sensorValue(matchedStringEndIndex + 1 + i);
+		}
 
-			//if (episodicMemory.size() > 5000000) {
-			//	System.exit(0);
-			//}
+		//Stop as soon as we sense something different from last time, since
+		//then we're lost and the rest of the commands won't help
+		int[] sensors = sensorBuffer(count);
+		int stopIndex = env.tickAll(commands, 0, count, sensors, expected);
+		int steps = (stopIndex == -1) ? count : stopIndex + 1;
+		for (int i = 0; i < steps; i++) {
+			episodicMemory.add(commands[i], sensors[i], INIT_STATE);
 		}
+		tickCount += steps;
 
-		return false;
+		//If we didn't reach the goal we're lost, so attempt another reset
+		return stopIndex != -1 && sensors[stopIndex] == GOAL;
 	}
 
 	/**
@@ -340,6 +731,14 @@ public class StateMachineAgent {
 		printStateMachine();
 	}
 
+	/**
+	 * @return the number of transitions of the agent's model it hasn't
+	 *         learned yet, which shows how far mapping has got
+	 */
+	public int getUnknownTransitions() {
+		return agentTransitionTable.totalUnknown();
+	}
+
 	/**
 	 * mappingComplete
 	 * 
@@ -348,259 +747,57 @@ public class StateMachineAgent {
 	 * @return True if the mapping is complete, else false
 	 */
 	private boolean mappingComplete() {
-
-		for (int i = 0; i < agentTransitionTable.size(); i++) {
-
-			//Skip the check if the current row has been deleted
-			if (agentTransitionTable.get(i)[0] == DELETED) {
-				continue;
-			}
-
-			//Make sure every space in the transition table has been filled
-			for (int j = 0; j < alphabet.length; j++) {
-				if (agentTransitionTable.get(i)[j] == UNKNOWN_TRANSITION) {
-					return false;
-				}
-			}
-		}
-
-		return true;
+		//every transition of every state in use is known
+		return agentTransitionTable.totalUnknown() == 0;
 	}
 
 	/**
 	 * Finds the ending index of the longest substring in episodic memory before
 	 * the previous goal matching the final string of actions the agent has
-	 * taken
+	 * taken.  Episodic memory keeps an index for this as it grows, so this
+	 * no longer has to compare the end of memory with every earlier episode.
 	 *
 	 * @return The ending index of the longest substring matching the final string of actions
 	 *         the agent has taken
 	 */
 	private int maxMatchedStringIndex() {
-		int lastGoalIndex = findLastGoal(episodicMemory.size());
-		if (lastGoalIndex == -1) {
-			return -1;
-		}
-
-		//If we've just reached the goal, then there is nothing to match
-		if (lastGoalIndex == episodicMemory.size() - 1)
-		{
-			return -1;
-		}
-
-		//Find the longest matching subsequence
-		int maxStringIndex = -1;
-		int maxStringLength = 0;
-		int currStringLength;
-		for (int i = lastGoalIndex-1; i >= 0; i--) {
-			currStringLength = matchedMemoryStringLength(i);
-			if (currStringLength > maxStringLength) {
-				maxStringLength = currStringLength;
-				maxStringIndex = i+1;
-			}
-		}//for
-
-		if (maxStringIndex < 0) {
-			return 0;
-		}
-		else {
-			return maxStringIndex;
-		}
+		return episodicMemory.longestMatchIndex();
 	}//maxMatchedStringIndex
 
-	/**
-	 * Starts from a given index and the end of the Agent's episodic memory and moves backwards, returning
-	 * the number of consecutive matching characters
-	 * @param endOfStringIndex The index from which to start the backwards search
-	 * @return the number of consecutive matching characters
-	 */
-	private int matchedMemoryStringLength(int endOfStringIndex) {
-		int length = 0;
-		int indexOfMatchingAction = episodicMemory.size() - 1;
-		boolean match;
-		for (int i = endOfStringIndex; i >= 0; i--) {			
-			//We want to compare the command from the prev episode and the 
-			//sensors from the "right now" episode to the sequence at the 
-			//index indicated by 'i'
-			char currCmd = episodicMemory.get(indexOfMatchingAction - 1).command;
-			int currSensors = episodicMemory.get(indexOfMatchingAction).sensorValue;
-			char prevCmd = episodicMemory.get(i).command;
-			int prevSensors = episodicMemory.get(i+1).sensorValue;
-
-			match = ( (currCmd == prevCmd) && (currSensors == prevSensors) );
-
-			if (match) {
-				length++;
-				indexOfMatchingAction--;
-			}
-			else {
-				return length;
-			}
-		}//for
-
-		return length;
-	}//matchedMemoryStringLength
-
 
 	/**
-	 * Searches backwards through the list of move-result pairs from the given index
+	 * Finds the last goal in the list of move-result pairs before the given index
 	 * @param toStart The index from which to start the backwards search
 	 * @return The index of the previous goal
 	 */
 	private int findLastGoal(int toStart) {
-		for (int i = toStart - 1; i > 0; i --) {
-			if (episodicMemory.get(i).sensorValue == GOAL) {
-				return i;
-			}
-		}
-		return -1;
-	}
-
-	/**
-	 * Takes in an agent's sensor data and encodes it into an integer
-	 * @param sensors The agent's sensor data
-	 * @return the integer encoding of that sensor data
-	 */
-	private int encodeSensors(boolean[] sensors) {
-		int encodedSensorResult;
-
-		if (sensors[IS_GOAL]) {
-			encodedSensorResult = GOAL;
-		}
-
-		else if (sensors[IS_NEW_STATE]) {
-			encodedSensorResult = TRANSITION_ONLY;
-		}
-
-		else {
-			encodedSensorResult = NO_TRANSITION;
-		}
-
-		return encodedSensorResult;
-	}
-
-	/**
-	 * hasTransition
-	 * 
-	 * A helper method to determine if one state has a transition to another
-	 * @param fromState The state to transition from
-	 * @param toState The state to tranisition to
-	 * @return The index into the alphabet array for the transition character, or
-	 * 			-1 if no such character exists
-	 */
-	private int hasTransition(int fromState, int toState) {
-		for (int i = 0; i < agentTransitionTable.get(fromState).length; i++) {
-			if (agentTransitionTable.get(fromState)[i] == toState) {
-				return i;
-			}
-		}
-		return -1;
+		return episodicMemory.lastGoalBefore(toStart);
 	}
 
 	/**
 	 * makePlanToState
 	 *
 	 * creates a new plan to reach a given state (see {@link #currentPlan}) from
-	 * a given state
+	 * a given state by a shortest path.  If there is no such path the current
+	 * plan is left as it is.
 	 *
 	 * @param startID   id of the state to start at
 	 * @param targetID  id of the state we want to reach
 	 */
 	private void makePlanToState(int startID, int targetID) {
-		//each path is a sequence of commands to reach the target
-		//state from the Nth state
-		String[] paths = new String[agentTransitionTable.size()];
-		for (int i = 0; i < paths.length; i++) {
-			paths[i] = "";
-		}
-
-		findAllPaths(paths, startID, targetID);
-
-		parsePathToPlan(paths, startID, targetID);
-
-		planIndex = -1;
-
-		//TODO: Debug
-		System.out.println("Plan from " + startID + " to " + targetID);
-		printPlan(currentPlan);
-		if (currentPlan == null) {
-			System.out.println("foo");
-		}
-		//if (currentPlan != null) System.exit(0);
-
-
-	}//makePlanToState
-
-	/**
-	 * findAllPaths
-	 *
-	 * Helper function for makePlanToState that uses targetID to construct all paths
-	 *
-	 * @param paths array of possible paths to reach goal
-	 * @param startID first destination to reach goal from
-	 * @param targetID the state to reach/goal
-	 *
-	 */
-	private void findAllPaths(String[] paths, int startID, int targetID){
-		//Create a queue that initially only contains the target state
-		ArrayList<Integer> queue = new ArrayList<Integer>();
-		queue.add(targetID);
-		int currState;
-		int transitionChar;
-
-		//loop through each state and add paths to reach currState to the queue
-		while (!queue.isEmpty()) {
-			//Grab the element at the front of the queue
-			currState = queue.remove(0);
-
-			//Move through each state that doesn't have a path yet. Find the
-			//transition from that state to the current state.
-			for (int i = 1; i < agentTransitionTable.size(); i++) {
-
-				//skip the ones that have a path
-				if (!paths[i].equals("")) continue;
-
-				transitionChar = hasTransition(i, currState);
-
-				//If state i has a transition to the current state and has no
-				//path, set the path for state i equal to the transition
-				//character from state i to the current state added to the front
-				//of the shortest path to the current state, and add state i
-				//onto the queue.
-				if (transitionChar != -1) {
-					paths[i] = alphabet[transitionChar] + paths[currState];
-					queue.add(i);
-
-					//if we find path to currstate from startID we can ignore the other states
-					if (i == startID) break;
-				}
-			}//for
-			//if we have found a path from the startID to the targetID we can ignore the other states
-			if (! paths[startID].equals("")) break;
-		}//while
-	}
-
-	/**
-	 * parsePathToPlan
-	 *
-	 * Accepts path to state and converts it into a plan comprised of a series of episodic memories
-	 *
-	 * @param paths array of possible paths to reach goal
-	 * @param startID first destination to reach goal from
-	 * @param targetID the state to reach/goal
-	 *
-	 */
-	private void parsePathToPlan(String[] paths, int startID, int targetID){
-		if (!paths[startID].equals("")) { //if there is a path, enter
+		if (planner.nextSymbol(startID, targetID) != Planner.NONE) {
 			ArrayList<Episode> plan = new ArrayList<Episode>();
-			String pathToParse = paths[startID];
-			int[] transitionRow = agentTransitionTable.get(startID);
-			int sensorValue = TRANSITION_ONLY;
+			int transitionState = startID;
 			int episodeState = startID;
+			int sensorValue = TRANSITION_ONLY;
+			int nextState;
 
-			//for each command in the path
-			for (int i = 0; i < pathToParse.length(); i++) {
-				//add the current episode
-				plan.add(new Episode(pathToParse.charAt(i), sensorValue, episodeState));
+			//follow the first step of the shortest path from each state
+			//until the target is reached
+			do {
+				int charIndex = planner.nextSymbol(transitionState, targetID);
+				plan.add(new Episode(alphabet.symbol(charIndex), sensorValue, episodeState));
+				nextState = agentTransitionTable.get(transitionState, charIndex);
 
 				//define the next sensor values in the plan
 				//TODO: for now this isn't correct.  The code only
@@ -609,74 +806,55 @@ public class StateMachineAgent {
 				//so we can recognize if the expected sensor values don't
 				//match actual and abort the plan then rather than waiting
 				//until we should reach the goal
-				if (targetID == 0 && i == pathToParse.length() - 1) {
+				if (targetID == 0 && nextState == targetID) {
 					sensorValue = GOAL;
 				} else {
 					sensorValue = TRANSITION_ONLY;
 				}
 
-				//figure out what state the command takes us to
-				int charIndex = findAlphabetIndex(pathToParse.charAt(i));
-				if (charIndex == -1) {
-					System.out.println("character: " + pathToParse.charAt(i));
-				}
-				if (transitionRow[charIndex] == GOAL_STATE) {
+				if (nextState == GOAL_STATE) {
 					episodeState = INIT_STATE; //magic teleport to goal
 				} else {
-					episodeState = transitionRow[charIndex];
-				}
-
-				//update to transition row assoc'd with new curr state
-				if (transitionRow[charIndex] != -1) {
-					transitionRow = agentTransitionTable.get(transitionRow[charIndex]);
+					episodeState = nextState;
 				}
-			}//for
+				transitionState = nextState;
+			} while (nextState != agentTransitionTable.find(targetID));
 
 			//Tack the goal state on the end to complete the plan
 			plan.add(new Episode(UNKNOWN_COMMAND, sensorValue, episodeState));
 
 			//Voila!
 			currentPlan = plan;
+			planStart = episodicMemory.numAdded() - 1;
+		}
 
-			//Any valid plan must have at least two steps
-			if (plan.size() < 2) {
-				currentPlan = null;
-			}
-		}//if
-	}
+		planIndex = -1;
+
+		//TODO: Debug
+		System.out.println("Plan from " + startID + " to " + targetID);
+		printPlan(currentPlan);
+		if (currentPlan == null) {
+			System.out.println("foo");
+		}
+		//if (currentPlan != null) System.exit(0);
+
+
+	}//makePlanToState
 
 	/**
-	 * getFirstUnkown
-	 *
-	 * Given an index into the transition table, this method discovers the first
-	 * unknown transition in that row in the table and
+	 * getUnknown
 	 *
-	 * @param rowIndex  index of the row in the transition table
+	 * @param state  a state in the transition table
 	 *
-	 * @return the letter in the alphabet that corresponds to that entry or
-	 * UNKNOWN_COMMAND if it was not found
+	 * @return a random letter whose transition from the given state is
+	 * unknown or UNKNOWN_COMMAND if there isn't one
 	 */
-	private char getFirstUnknown(int rowIndex) {
-		int[] row = agentTransitionTable.get(rowIndex);
-		if (row[0] == DELETED) {
+	private char getUnknown(int state) {
+		int unknown = agentTransitionTable.numUnknown(state);
+		if (unknown == 0) {
 			return UNKNOWN_COMMAND;
 		}
-		for(int i = 0; i < row.length; ++i) {
-			if (row[i] == UNKNOWN_TRANSITION) {
-				return alphabet[i];
-			}
-		}
-
-		return UNKNOWN_COMMAND;  // no unknown transition
-	}//getFirstUnknown
-
-	private char getUnknown(int rowIndex) {
-		char c = generateRandomAction();
-		int[] row = agentTransitionTable.get(rowIndex);
-		if (row[indexOfCharacter(c)] == UNKNOWN_TRANSITION) {
-			return c;
-		}
-		return getUnknown(rowIndex);
+		return alphabet.symbol(agentTransitionTable.unknownSymbol(state, random.nextInt(unknown)));
 	}
 
 
@@ -713,36 +891,27 @@ public class StateMachineAgent {
 		//If there is no plan, then select an action that I've never done before
 		//from the state that I believe I'm in (explore)
 		else {
-			for (int i = 0; i < alphabet.length; i++) {
-				if (agentTransitionTable.get(currentState)[i] == UNKNOWN_TRANSITION) {
-					cmd = getUnknown(currentState);
-					if (cmd != UNKNOWN_COMMAND) return cmd;
-				}
-			}
+			cmd = getUnknown(currentState);
+			if (cmd != UNKNOWN_COMMAND) return cmd;
 		}
 
 		//Find and delete any unreachable states
-		for (int i = 2; i < agentTransitionTable.size(); i++) {
-			if (agentTransitionTable.get(i)[0] != DELETED) {
-				makePlanToState(INIT_STATE, i);
-				if (currentPlan == null) {
-					agentTransitionTable.get(i)[0] = DELETED;
-				}
+		for (int i = 2; i < agentTransitionTable.numStates(); i++) {
+			if (!agentTransitionTable.isDeleted(i) && !agentTransitionTable.isReachable(i)) {
+				agentTransitionTable.delete(i);
 			}
 		}
 
 		//if we reach this point there is no unknown transition from the current
-		//state.  Find the lowest numbered state that has an unknown transition
-		//and make a plan to get there
-		int state = 0;
-		while (cmd == UNKNOWN_COMMAND) {
-			state++;
-			cmd = getFirstUnknown(state);
-		}
+		//state.  Find the closest state that has an unknown transition and
+		//make a plan to get there
+		int state = planner.nearestUnknown(this.currentState);
 
 		//make a plan to reach that unknown state
 		this.currentPlan = null;
-		makePlanToState(this.currentState, state);
+		if (state != Planner.NONE) {
+			makePlanToState(this.currentState, state);
+		}
 		if (currentPlan != null) {
 			cmd = currentPlan.get(planIndex+1).command;
 			return cmd;
@@ -753,21 +922,6 @@ public class StateMachineAgent {
 		return generateRandomAction();
 	}
 
-	/**
-	 * Returns the index of the given character in the alphabet array
-	 * @param toCheck the character to find the index of
-	 * @return the index of toCheck
-	 */
-	private int indexOfCharacter(char toCheck) {
-		for (int i = 0; i < alphabet.length; i++) {
-			if (alphabet[i] == toCheck) {
-				return i;
-			}
-		}
-
-		return -1;
-	}
-
 	/**
 	 * acceptCurrentHypothesis
 	 *
@@ -784,57 +938,84 @@ public class StateMachineAgent {
 	private void acceptCurrentHypothesis() {
 		//Delete all states added while doing this plan, then reset the list
 		for (int i : addedInPlan) {
-			agentTransitionTable.get(i)[0] = DELETED;
+			agentTransitionTable.delete(i);
 		}
 
-		//Replace states in previous episodes with correct ones
-		int k = 0;
-		for (int i = episodicMemory.size() - currentPlan.size(); i < episodicMemory.size(); i++) {
-			episodicMemory.get(i).stateID = currentPlan.get(k).stateID;
-			k++;
+		//Replace states in previous episodes with correct ones (a bounded
+		//memory may already have forgotten or merged some of them)
+		for (int k = 0; k < currentPlan.size(); k++) {
+			int i = episodicMemory.indexOf(planStart + k);
+			if (i != -1) {
+				episodicMemory.setStateID(i, currentPlan.get(k).stateID);
+			}
 		}
 
-		equivalentStates.add(currentHypothesis);
+		equivalentStates.add(currentHypothesis[0], currentHypothesis[1]);
 		if (currentHypothesis[1] == INIT_STATE) {
 			currentHypothesis[1] = currentHypothesis[0];
 			currentHypothesis[0] = INIT_STATE;
 		}
 		mergeTwoStates(currentHypothesis[0], currentHypothesis[1]);
-		for (int i = 0; i < agentTransitionTable.size(); i++) {
-			for (int j = i + 1; j < agentTransitionTable.size(); j++) {
-				if (isCompatibleRow(agentTransitionTable.get(i), agentTransitionTable.get(j), true)) {
-					mergeTwoStates(i, j);
+
+		//Merge any other rows that are now compatible.  Only a row that has
+		//changed since the last time can have become compatible with
+		//another, so work through those until nothing changes.
+		int state;
+		while ((state = agentTransitionTable.takeChanged()) != LearnedTransitionTable.NONE) {
+			mergeCompatibleRow(state);
+		}
+
+	}
+
+	/**
+	 * mergeCompatibleRow
+	 *
+	 * Looks for a row that is compatible with the given one and merges the
+	 * two.  Compatible rows share at least one known transition, so the only
+	 * rows to check are the ones with a transition to the same state on the
+	 * same character.  After a merge the row that is left is on the list of
+	 * changed rows again, so it is enough to stop at the first merge.
+	 */
+	private void mergeCompatibleRow(int state) {
+		if (agentTransitionTable.isDeleted(state)) {
+			return;
+		}
+		for (int i = 0; i < alphabet.size(); i++) {
+			int target = agentTransitionTable.get(state, i);
+			if (target == UNKNOWN_TRANSITION) {
+				continue;
+			}
+			for (int cell = agentTransitionTable.firstReference(target);
+					cell != LearnedTransitionTable.NONE;
+					cell = agentTransitionTable.nextReference(cell)) {
+				int other = agentTransitionTable.cellState(cell);
+				if (agentTransitionTable.cellSymbol(cell) != i || other == state) {
+					continue;
+				}
+				if (isCompatibleRow(state, other, true)) {
+					//as before, the lower numbered state is the one kept
+					mergeTwoStates(Math.min(state, other), Math.max(state, other));
+					return;
 				}
 			}
 		}
-
 	}
 
 	/**
 	 * mergeTwoStates
 	 * 
-	 * Takes two equivalent states and merges them together
+	 * Takes two equivalent states and merges them together.  Transitions to
+	 * state2 (and episodes in state2) are not rewritten; the table resolves
+	 * them to state1 whenever they are looked up.  Known non-equivalent
+	 * pairs are renamed, though, since they are looked up by ID.
 	 */
 	private void mergeTwoStates(int state1, int state2) {
 		//Merge the two states together
 		System.out.println("State " + state1 + " has been merged with State " + state2);
-		for (int i = 0; i < alphabet.length; i++) {
-			if (agentTransitionTable.get(state2)[i] != UNKNOWN_TRANSITION && agentTransitionTable.get(state1)[i] == UNKNOWN_TRANSITION) {
-				agentTransitionTable.get(state1)[i] = agentTransitionTable.get(state2)[i];
-			}
-		}
-
-		//Change all transitions to state2 to transitions to state1
-		for (int i = 0; i < agentTransitionTable.size(); i++) {
-			for (int j = 0; j < alphabet.length; j++) {
-				if (agentTransitionTable.get(i)[j] == state2) {
-					agentTransitionTable.get(i)[j] = state1;
-				}
-			}
-		}
-
-		//Mark state2 as deleted
-		agentTransitionTable.get(state2)[0] = DELETED;
+		int kept = agentTransitionTable.find(state1);
+		int lost = agentTransitionTable.find(state2);
+		agentTransitionTable.merge(kept, lost);
+		nonEquivalentStates.rename(lost, kept);
 	}
 
 	/**
@@ -868,13 +1049,13 @@ public class StateMachineAgent {
 		//Add the current hypothesis to the list of non equivalent states if the hypothesis exists
 		if (currentHypothesis != null)
 		{
-			nonEquivalentStates.add(currentHypothesis);
+			nonEquivalentStates.add(agentTransitionTable.find(currentHypothesis[0]),
+					agentTransitionTable.find(currentHypothesis[1]));
 		}
 		currentHypothesis = null;
-		Episode lastEpisode = episodicMemory.get(episodicMemory.size() - 1);
-		char action = lastEpisode.command;
-		int lastState = lastEpisode.stateID;
-		int actionIndex = findAlphabetIndex(action);
+		char action = episodicMemory.command(episodicMemory.size() - 1);
+		int lastState = episodicMemory.stateID(episodicMemory.size() - 1);
+		int actionIndex = alphabet.indexOf(action);
 
 		//Remove the current plan and reset the plan index
 		currentPlan = null;
@@ -882,27 +1063,6 @@ public class StateMachineAgent {
 
 	}//cleanupFailedPlan
 
-	/**
-	 * A helper method which determines a given letter's
-	 * location in the alphabet
-	 * 
-	 * @param letter
-	 * 		The letter who's index we wish to find
-	 * @return
-	 * 		The index of the given letter (or -1 if the letter was not found)
-	 */
-	private int findAlphabetIndex(char letter) {
-		// Iterate the through the alphabet to find the index of letter
-		for(int i = 0; i < alphabet.length; i++){
-			if(alphabet[i] == letter)
-				return i;
-		}
-
-		// Error if letter is not found
-		return -1;
-	}
-
-
 	/**
 	 * isCompatibleRow
 	 *
@@ -911,11 +1071,11 @@ public class StateMachineAgent {
 	 * unknown are the same value.
 	 *
 	 */
-	private boolean isCompatibleRow(int[] row1, int[] row2, boolean hypothesisMerged) {
+	private boolean isCompatibleRow(int state1, int state2, boolean hypothesisMerged) {
 		//System.out.println("Checking if rows are compatible");
 
 		//A deleted row is incompatible with everything
-		if (row1[0] == DELETED || row2[0] == DELETED) {
+		if (agentTransitionTable.isDeleted(state1) || agentTransitionTable.isDeleted(state2)) {
 			return false;
 		}
 
@@ -924,11 +1084,11 @@ public class StateMachineAgent {
 		//The goal row should NEVER be merged
 		boolean goal1 = true;
 		boolean goal2 = true;
-		for (int i = 0; i < row1.length; i++) {
-			if (row1[i] != GOAL_STATE) {
+		for (int i = 0; i < alphabet.size(); i++) {
+			if (agentTransitionTable.get(state1, i) != GOAL_STATE) {
 				goal1 = false;
 			}
-			if (row2[i] != GOAL_STATE) {
+			if (agentTransitionTable.get(state2, i) != GOAL_STATE) {
 				goal2 = false;
 			}
 		}
@@ -941,11 +1101,13 @@ public class StateMachineAgent {
 		if (!hypothesisMerged) knownShared = true;
 		
 		// Go through each entry in the rows to compare them
-		for(int i = 0; i < row1.length; i++) { 
+		for(int i = 0; i < alphabet.size(); i++) { 
+			int entry1 = agentTransitionTable.get(state1, i);
+			int entry2 = agentTransitionTable.get(state2, i);
 			// If the rows are not equivalent
-			if(row1[i] != row2[i]) {
+			if(entry1 != entry2) {
 				// And neither of them are unknown, the rows are not equivalent
-				if( !(row1[i] == UNKNOWN_TRANSITION || row2[i] == UNKNOWN_TRANSITION)){
+				if( !(entry1 == UNKNOWN_TRANSITION || entry2 == UNKNOWN_TRANSITION)){
 					return false;
 				}
 			}
@@ -953,7 +1115,7 @@ public class StateMachineAgent {
 			// Ensure there is at least one known match between the two rows
 			//TODO:  Put this back in?  Removed by :AMN: and HNK because the current state is likely to 
 			// be brand new and thus have -1 for all transitions out.  How can this ever pass?
-			else if (row1[i] != UNKNOWN_TRANSITION && row2[i] != UNKNOWN_TRANSITION) {
+			else if (entry1 != UNKNOWN_TRANSITION && entry2 != UNKNOWN_TRANSITION) {
 				knownShared = true;
 			}
 		}
@@ -978,12 +1140,11 @@ public class StateMachineAgent {
 		possibleBest.add(cmd);
 
 		//Complete the current episode with the given command
-		Episode currEp = this.episodicMemory.get(this.episodicMemory.size() - 1);
-		currEp.command = cmd;
+		this.episodicMemory.setCommand(this.episodicMemory.size() - 1, cmd);
 
-		boolean[] sensors = env.tick(cmd);
-		int mergedSensors = encodeSensors(sensors);
-		int commandIndex = findAlphabetIndex(cmd);
+		int mergedSensors = env.tickEncoded(cmd);
+		tickCount++;
+		int commandIndex = alphabet.indexOf(cmd);
 
 		if (mergedSensors == GOAL) {
 			if (best == null || possibleBest.size() < best.size()) {
@@ -1002,7 +1163,8 @@ public class StateMachineAgent {
 			//check it every step.
 			if (planIndex == currentPlan.size() - 2 && 
 					((currPlanEp.sensorValue == GOAL && mergedSensors != GOAL) || 
-							(currPlanEp.sensorValue != GOAL && currentState != currPlanEp.stateID))) {
+							(currPlanEp.sensorValue != GOAL
+							 && agentTransitionTable.find(currentState) != agentTransitionTable.find(currPlanEp.stateID)))) {
 				// %%%DEBUG
 				System.out.println("Our plan failed!");
 				//Plan has failed
@@ -1010,31 +1172,24 @@ public class StateMachineAgent {
 			}
 
 			//Examine the transition to extract what state I believe I'm in
-			Episode prev = episodicMemory.get(episodicMemory.size() - 1);
-			if (prev.stateID < 0) {
-				System.out.println("I'm returning   " + prev.stateID);
+			int prevStateID = agentTransitionTable.find(episodicMemory.stateID(episodicMemory.size() - 1));
+			if (prevStateID < 0) {
+				System.out.println("I'm returning   " + prevStateID);
 				return;
 			}
-			int[] row = agentTransitionTable.get(prev.stateID);
-			this.currentState = row[commandIndex];
+			this.currentState = agentTransitionTable.get(prevStateID, commandIndex);
 
 			//If I don't know where I am create a new state and update the table
 			if (this.currentState == UNKNOWN_TRANSITION) {
 				//Create a new state for this new circumstance if we are not at the goal
 				if (mergedSensors != GOAL) {
-					currentStateID++;
-					row[commandIndex] = currentStateID;
+					//add a row to the transition table to support this
+					currentStateID = agentTransitionTable.addState();
+					agentTransitionTable.set(prevStateID, commandIndex, currentStateID);
 					currentState = currentStateID;
 					if (currentPlan != null) {
 						addedInPlan.add(currentStateID);
 					}
-
-					//%%%TBD  add a row to the transition table to support this
-					int[] newRow = new int[alphabet.length];
-					for (int i = 0; i < newRow.length; i++) {
-						newRow[i] = UNKNOWN_TRANSITION;
-					}
-					agentTransitionTable.add(newRow);
 				}
 			}
 
@@ -1048,8 +1203,7 @@ public class StateMachineAgent {
 			//%%%ISSUE: What if the hypothesis is not correct?
 			//%%%ANSWER: Doesn't matter, it's fucked either way.
 			//%%%TODO: Return to this, replace episodes with plan episodes if the plan was successful
-			Episode now = new Episode(UNKNOWN_COMMAND, mergedSensors, currentState);
-			episodicMemory.add(now);
+			episodicMemory.add(UNKNOWN_COMMAND, mergedSensors, currentState);
 
 			//If we've reached the goal episode for the plan the remove it
 			//And verify all hypotheses
@@ -1070,40 +1224,32 @@ public class StateMachineAgent {
 		//has just taken a random or semi-random action
 		else {
 			//Examine the transition to extract what state I believe I'm in
-			Episode prev = episodicMemory.get(episodicMemory.size() - 1);
-			if (prev.stateID < 0) {
-				System.out.println("I'm returning   " + prev.stateID);
+			int prevStateID = agentTransitionTable.find(episodicMemory.stateID(episodicMemory.size() - 1));
+			if (prevStateID < 0) {
+				System.out.println("I'm returning   " + prevStateID);
 				return;
 			}
-			int[] row = agentTransitionTable.get(prev.stateID);
-			this.currentState = row[commandIndex];
+			this.currentState = agentTransitionTable.get(prevStateID, commandIndex);
 
 			//If I don't know where I am create a new state and update the table
 			if (this.currentState == UNKNOWN_TRANSITION) {
 				//Create a new state for this new circumstance if we are not at the goal
 				if (mergedSensors != GOAL) {
-					currentStateID++;
-					row[commandIndex] = currentStateID;
-					currentState = currentStateID;
-
 					//add a row to the transition table to support this
-					int[] newRow = new int[alphabet.length];
-					for (int i = 0; i < newRow.length; i++) {
-						newRow[i] = UNKNOWN_TRANSITION;
-					}
-					agentTransitionTable.add(newRow);
+					currentStateID = agentTransitionTable.addState();
+					agentTransitionTable.set(prevStateID, commandIndex, currentStateID);
+					currentState = currentStateID;
 				}
 			}
 
 			//Magical reset to the start if the goal has been reached
 			if (mergedSensors == GOAL) {
 				this.currentState = INIT_STATE;
-				row[commandIndex] = GOAL_STATE;
+				agentTransitionTable.set(prevStateID, commandIndex, GOAL_STATE);
 			}
 
 			//Add an episode to reflect what just happened
-			Episode now = new Episode(UNKNOWN_COMMAND, mergedSensors, this.currentState);
-			episodicMemory.add(now);
+			episodicMemory.add(UNKNOWN_COMMAND, mergedSensors, this.currentState);
 			//this.currentState = currentStateID;
 			
 			//TODO: REMOVE (DEBUG)
@@ -1124,52 +1270,43 @@ public class StateMachineAgent {
 
 			int equivIndex = maxMatchedStringIndex();
 			if (equivIndex != -1) {
-				Episode equivEpisode = episodicMemory.get(equivIndex);
-				if (equivEpisode.stateID < 0) {
+				int equivStateID = agentTransitionTable.find(episodicMemory.stateID(equivIndex));
+				if (equivStateID < 0) {
 					return;
 				}
-				int[] equivRow = agentTransitionTable.get(equivEpisode.stateID);
 
 				//Make sure the equiv episode is not the current one
 				if (equivIndex >= episodicMemory.size() - 1) return;
 
 				//verify this equiv state has a compatible transition table entry to
 				//current state
-				row = agentTransitionTable.get(this.currentState);
-				if (!isCompatibleRow(row, equivRow, false)) return;
+				if (!isCompatibleRow(this.currentState, equivStateID, false)) return;
 
 				//Make sure that the two states are not the same
-				if (equivEpisode.stateID == this.currentState) return;
+				if (equivStateID == this.currentState) return;
 
 				//verify that we haven't already discovered that these
 				//states aren't equal
-				for (int i = 0; i < nonEquivalentStates.size(); i++) {
-					if (nonEquivalentStates.get(i)[0] == equivEpisode.stateID 
-							&& nonEquivalentStates.get(i)[1] == this.currentState) {
-						return;
-					}
-					if (nonEquivalentStates.get(i)[1] == equivEpisode.stateID 
-							&& nonEquivalentStates.get(i)[0] == this.currentState) {
-						return;
-					}
+				if (nonEquivalentStates.contains(equivStateID, this.currentState)) {
+					return;
 				}
 
 				//Don't make a hypothesis that any state is equal to the goal state
-				if (equivEpisode.stateID == GOAL_STATE || currentState == GOAL_STATE) {
+				if (equivStateID == GOAL_STATE || currentState == GOAL_STATE) {
 					return;
 				}
 
 				//hypothesize that equiv state equals the current state
 				currentHypothesis = new int[2];
-				currentHypothesis[0] = equivEpisode.stateID;
+				currentHypothesis[0] = equivStateID;
 				currentHypothesis[1] = this.currentState;
 
                 //TODO:  REMOVE (DEBUG)
-                System.out.println("hypothesis: " + equivEpisode.stateID +
+                System.out.println("hypothesis: " + equivStateID +
                                     " == " + this.currentState);
 
 				//Make a plan to reach the goal based upon the hypothesis
-				makePlanToState(equivEpisode.stateID, GOAL_STATE);
+				makePlanToState(equivStateID, GOAL_STATE);
 			}
 
 		}//else
@@ -1189,18 +1326,49 @@ public class StateMachineAgent {
 	 * runs multiple trials wherein a random state machine is solved and the
 	 * resulting 'best passphrase' for each is analyzed
 	 */
-	public static void main(String [ ] args)
+	public static void main(String [ ] args) throws IOException
 	{
+		//Pass a seed on the command line to repeat a previous run and a file
+		//name after it to log the agent's episodes to that file (or to resume
+		//the run already logged in it)
+		long seed = (args.length > 0) ? Long.parseLong(args[0]) : System.nanoTime();
+		System.out.println("SEED: " + seed);
+
 		StateMachineAgent ofSPECTRE;
-		ofSPECTRE = new StateMachineAgent();
+		ofSPECTRE = new StateMachineAgent(testEnvironment(), new SplittableRandom(seed));
 		System.out.println("ENVIRONMENT INFO:");
 		ofSPECTRE.env.printStateMachine();
 		ofSPECTRE.env.printPaths();
 
+		//If the log already has episodes in it, carry on from where that run
+		//left off and add to the log rather than starting it again
+		EpisodeLog log = null;
+		if (args.length > 1) {
+			File logFile = new File(args[1]);
+			if (logFile.length() > 0) {
+				EpisodicMemory memory = new EpisodicMemory();
+				long count = EpisodeLog.replay(logFile, memory);
+				System.out.println("Resuming from " + count + " episodes in " + logFile);
+				ofSPECTRE.resume(memory);
+				log = new EpisodeLog(logFile, EpisodeLog.DEFAULT_FLUSH_INTERVAL, true);
+				ofSPECTRE.continueEpisodeLog(log);
+			}
+			else {
+				log = new EpisodeLog(logFile);
+				ofSPECTRE.setEpisodeLog(log);
+			}
+		}
 
-		ofSPECTRE.mapStateMachine();
-		ofSPECTRE.best.printpath();
-		ofSPECTRE.episodicMemory = new ArrayList<Episode>();
+		try {
+			ofSPECTRE.mapStateMachine();
+			ofSPECTRE.best.printpath();
+		}
+		finally {
+			if (log != null) {
+				log.close();
+			}
+		}
+		ofSPECTRE.episodicMemory = new EpisodicMemory();
 
 	}
 
@@ -1210,26 +1378,26 @@ public class StateMachineAgent {
 	 */
 	public void printStateMachine() {
 		System.out.print("     ");
-		for(int i = 0; i < alphabet.length; ++i) {
-			System.out.printf("%3c", alphabet[i]);
+		for(int i = 0; i < alphabet.size(); ++i) {
+			System.out.printf("%3c", alphabet.symbol(i));
 		}
 		System.out.println();
 
-		for (int i = 0; i < agentTransitionTable.size(); i++) {
-			if (agentTransitionTable.get(i)[0] == DELETED) {
+		for (int i = 0; i < agentTransitionTable.numStates(); i++) {
+			if (agentTransitionTable.isDeleted(i)) {
 				continue;
 			}
 			System.out.printf("%s%3d: ", currentState == i ? "*" : " ", i);
 
-			for (int j = 0; j < alphabet.length; j++) {
-				System.out.printf("%3d", agentTransitionTable.get(i)[j]);
+			for (int j = 0; j < alphabet.size(); j++) {
+				System.out.printf("%3d", agentTransitionTable.get(i, j));
 			}
 			System.out.println();
 		}
 
 		System.out.print("     ");
-		for(int i = 0; i < alphabet.length; ++i) {
-			System.out.printf("%3c", alphabet[i]);
+		for(int i = 0; i < alphabet.size(); ++i) {
+			System.out.printf("%3c", alphabet.symbol(i));
 		}
 		System.out.println();
 	}
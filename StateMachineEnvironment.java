@@ -1,6 +1,8 @@
 
-import java.util.ArrayList;
-import java.util.Random;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.SplittableRandom;
 
 
 /**
@@ -21,29 +23,79 @@ import java.util.Random;
  */
 public class StateMachineEnvironment {
 	
-	// Instance variables
-	public static int NUM_STATES = 8;
-	public static int GOAL_STATE = NUM_STATES - 1;
-	public static int ALPHABET_SIZE = 6;  //for now, this can't exceed 26
-	public static int NUM_TRANSITIONS = ALPHABET_SIZE/2;
-
 	 //These are used as indexes into the the sensor array
 	private static final int IS_NEW_STATE = 0;
 	private static final int IS_GOAL = 1;
 
-    
-	private int[][] transition;
-	private char[] alphabet;
-	private String[] paths;
+	//Encoded sensor values (see tickEncoded)
+	public static final int NO_TRANSITION = 0;
+	public static final int TRANSITION_ONLY = 1;
+	public static final int GOAL = 2;
+
+	// Instance variables
+	private final EnvironmentConfig config;
+	private final SplittableRandom random;  //used to generate the machine
+	private TransitionTable transition;
+	private Alphabet alphabet;
+	private int[] distance;    //length of the shortest path from each state to the goal
+	private int[] nextHop;     //first character (index) of that shortest path
+	private int numUnreachable; //number of states with no path to the goal
 	public int currentState;
+
+	//Current state of each walker (see initWalkers)
+	private int[] walkerStates = new int[0];
+
+	//Reverse adjacency index (see buildReverseIndex)
+	private int[] predStart;
+	private int[] predState;
+	private int[] predSymbol;
+
+	//Transitions added to the reverse index since it was built (see
+	//addPredecessor).  The extra entries for each state form a linked list.
+	private int[] extraHead;
+	private int[] extraState;
+	private int[] extraSymbol;
+	private int[] extraNext;
+	private int numExtra;
+
+	//Scratch space for setTransition
+	private int[] bufState = new int[16];
+	private int[] bufSymbol = new int[16];
+	private int[] workQueue = new int[16];
+	private boolean[] affected;
+
+	//Scratch space for tickAll(Path, int[])
+	private char[] pathBuffer = new char[16];
 	
 	//DEBUG
 	private boolean debug = false;
 
 	
+	/**
+	 * creates a random environment using the default config
+	 */
 	public StateMachineEnvironment() {
-		paths = new String[NUM_STATES];
-		paths[GOAL_STATE] = "";
+		this(EnvironmentConfig.DEFAULT);
+	}
+
+	/**
+	 * creates a random environment with the given dimensions
+	 */
+	public StateMachineEnvironment(EnvironmentConfig config) {
+		this(config, new SplittableRandom());
+	}
+
+	/**
+	 * creates a random environment with the given dimensions.  The same
+	 * config and a random generator with the same seed always produce the
+	 * same machine.
+	 *
+	 * @param random source of randomness for generating the machine.  The
+	 *               environment takes ownership of it.
+	 */
+	public StateMachineEnvironment(EnvironmentConfig config, SplittableRandom random) {
+		this.config = config;
+		this.random = random;
 		fillAlphabet();
 		currentState = 0;
 		generateStateMachine();
@@ -51,103 +103,113 @@ public class StateMachineEnvironment {
 			printStateMachine();
 		}
 		
-		findShortestPaths();
+		//If there is a state with no path to the goal, we have a bum state
+		//machine. Regenerate and try again
+		while (!findShortestPaths()) {
+			generateStateMachine();
+		}
 		if (debug) {
-			System.out.println("Shortest Path: " + paths[0]);
+			System.out.println("Shortest Path: " + getPath(0));
 		}
 	}
 	
 	/**
 	 * A constructor which allows us to hard code state machine transitions
-	 * for testing purposes 
+	 * for testing purposes.  The last state is the goal.
 	 */
 	public StateMachineEnvironment(int[][] transitions, int alphaSize, int numTransitions) {
-		NUM_STATES = transitions.length;
-		GOAL_STATE = NUM_STATES - 1;
-		ALPHABET_SIZE = alphaSize;
-		NUM_TRANSITIONS = numTransitions;
+		config = new EnvironmentConfig(transitions.length, alphaSize, numTransitions);
+		random = new SplittableRandom();
 		
-		paths = new String[NUM_STATES];
-		paths[GOAL_STATE] = "";
 		fillAlphabet();
 		currentState = 0;
-		transition = transitions;
+		transition = new ArrayTransitionTable(transitions);
 		
 		if(debug) {
 			printStateMachine();
 		}
 		
-		findShortestPaths();
+		//If the given machine is a bum one, replace it with a random one
+		while (!findShortestPaths()) {
+			generateStateMachine();
+		}
 		if(debug) {
-			System.out.println("Shortest Path: " + paths[0]);
+			System.out.println("Shortest Path: " + getPath(0));
+		}
+	}
+
+	/**
+	 * Creates an environment from a machine whose shortest paths are already
+	 * known (see {@link EnvironmentFile}).  Nothing is recomputed.
+	 */
+	StateMachineEnvironment(EnvironmentConfig config, Alphabet alphabet,
+			TransitionTable transitions, int[] distance, int[] nextHop) {
+		this.config = config;
+		this.random = new SplittableRandom();
+		this.alphabet = alphabet;
+		this.transition = transitions;
+		this.distance = distance;
+		this.nextHop = nextHop;
+		currentState = 0;
+		for (int i = 0; i < distance.length; i++) {
+			if (distance[i] == -1) {
+				numUnreachable++;
+			}
 		}
 	}
 
     /**
-     * fills the alphabet array with ALPHABET_SIZE characters
-     *
-     * In the future, it'd be nice to handle sizes greater than 26.  Right now
-     * that's the max.
+     * creates an alphabet with config.alphabetSize characters
      */
     void fillAlphabet() {
-        alphabet = new char[ALPHABET_SIZE];
-        for(int i = 0; i < alphabet.length; ++i) {
-            char next = (char)('a' + i);
-            alphabet[i] = next;
-        }
+        alphabet = new Alphabet(config.alphabetSize);
     }
 
-    /**
-     * initializes the list of shortest paths to nulls again so that they can be
-     * recalcualted by findShortestPath
-     */
-    private void initPaths()
-    {
-        for(int i = 0; i < paths.length-1; ++i)
-        {
-            paths[i] = null;
-        }
-        paths[paths.length - 1] = "";
-    }
-    
 	/**
-	 * A helper method to generate a random state machine environment
+	 * A helper method to generate a random state machine environment using
+	 * the generator named in the config
 	 */
 	private void generateStateMachine() {
+		if (config.generator == EnvironmentConfig.Generator.CONSTRUCTIVE) {
+			generateConnectedStateMachine();
+		}
+		else {
+			generateRandomStateMachine();
+		}
+	}
+
+	/**
+	 * Generates a state machine by picking every transition at random.  There
+	 * is no guarantee that the goal can be reached from every state.
+	 */
+	private void generateRandomStateMachine() {
 		
 		//Create the transition table for our state machine. Each state has a
 		//numerical designation. We index into the array using the number of the
 		//state we are transitioning from, then the numerical index of the
-		//alphabetical character being read
-		transition = new int[NUM_STATES][alphabet.length];
-		Random random = new Random();
+		//alphabetical character being read.  Every state starts out
+		//transitioning to itself on every character, so a character that
+		//already has a transition to a different state is easy to spot
+		transition = config.newTransitionTable();
+		int numSymbols = alphabet.size();
 		int charToTransition;
 
         	// //DEBUG
-		// System.out.println(transition[0][0]);
-		
-		//Initialize all the values to -1 so we can tell if there's a transition
-		//there or not (since 0 is a valid state to transition to, and the array
-		//will initially consist of all 0s)
-		for (int i = 0; i < NUM_STATES; i++) {
-			for (int j = 0; j < transition[i].length; j++) {
-				transition[i][j] = -1;
-			}
-		}
+		// System.out.println(transition.get(0, 0));
 		
 		//Iterate through each row of the Transition Table so we can set the
 		//transitions out of each state in the state machine
-		for (int i = 0; i < NUM_STATES; i++) {
+		for (int i = 0; i < config.numStates; i++) {
 			
 			//Generate a number of transitions to separate states equal to the
 			//number of transitions previously set
-			for (int j = 0; j < NUM_TRANSITIONS; j++) {
+			for (int j = 0; j < config.numTransitions; j++) {
 				
 				//Randomly generate a character to transition on
-				charToTransition = random.nextInt(transition[i].length);
+				charToTransition = random.nextInt(numSymbols);
 				
 				//if there is already a transition for that character, generate a new character to transition on
-				if (transition[i][charToTransition] != -1) {
+				if (transition.get(i, charToTransition) != i) {
 					j--;
 					continue;
 				}
@@ -156,24 +218,81 @@ public class StateMachineEnvironment {
 				//current state, then set the transition from the current state
 				//on the randomly generated character to the randomly generated
 				//state
-				int nextState = random.nextInt(NUM_STATES);
+				int nextState = random.nextInt(config.numStates);
 				
 				while(nextState == i) {
-					nextState = random.nextInt(NUM_STATES);
+					nextState = random.nextInt(config.numStates);
 				}
 				
-				transition[i][charToTransition] = nextState;
+				transition.set(i, charToTransition, nextState);
 				
 			}
-			
-			//For all characters for the current state that do not have a
-			//transition, set the transition equal to current state
-			for(int j = 0; j < transition[i].length; j++) {
-				if(transition[i][j] == -1){
-					transition[i][j] = i;
+		}		
+	}
+	
+	/**
+	 * Generates a state machine in which the goal can be reached from every
+	 * state.  Each state other than the goal is linked, in a random order, to
+	 * a random state that is already known to reach the goal; that link is
+	 * one of the state's transitions.  The rest of its transitions are then
+	 * picked at random just like {@link #generateRandomStateMachine}.
+	 */
+	private void generateConnectedStateMachine() {
+		int numStates = config.numStates;
+		int numSymbols = alphabet.size();
+		//Every state starts out transitioning to itself on every character
+		transition = config.newTransitionTable();
+
+		//Shuffle the states that still need to be linked to the goal
+		int[] order = new int[numStates];
+		for (int i = 0; i < numStates; i++) {
+			order[i] = i;
+		}
+		order[config.goalState] = order[0];
+		order[0] = config.goalState;
+		for (int i = numStates - 1; i > 1; i--) {
+			int j = 1 + random.nextInt(i);
+			int temp = order[i];
+			order[i] = order[j];
+			order[j] = temp;
+		}
+
+		//The characters of each row are picked with a partial shuffle of this
+		//array, so no character is picked twice for the same state
+		int[] symbols = new int[numSymbols];
+		for (int j = 0; j < numSymbols; j++) {
+			symbols[j] = j;
+		}
+
+		//order[0..i-1] can all reach the goal, so linking order[i] to any one
+		//of them means it can reach the goal too
+		for (int i = 0; i < numStates; i++) {
+			int state = order[i];
+			int picked = 0;
+
+			if (i > 0) {
+				swap(symbols, 0, random.nextInt(numSymbols));
+				transition.set(state, symbols[0], order[random.nextInt(i)]);
+				picked = 1;
+			}
+
+			//Transitions to random other states on the remaining characters
+			for (; picked < config.numTransitions; picked++) {
+				swap(symbols, picked, picked + random.nextInt(numSymbols - picked));
+				int nextState = random.nextInt(numStates - 1);
+				if (nextState >= state) {
+					nextState++;  //skip over the current state
 				}
+				transition.set(state, symbols[picked], nextState);
 			}
-		}		
+		}
+	}
+
+	/** swaps two entries in an array */
+	private static void swap(int[] array, int i, int j) {
+		int temp = array[i];
+		array[i] = array[j];
+		array[j] = temp;
 	}
 	
 	 /**
@@ -182,23 +301,23 @@ public class StateMachineEnvironment {
      */
     public void printStateMachine() {
         System.out.print("     ");
-        for(int i = 0; i < ALPHABET_SIZE; ++i) {
-            System.out.printf("%3c", alphabet[i]);
+        for(int i = 0; i < alphabet.size(); ++i) {
+            System.out.printf("%3c", alphabet.symbol(i));
         }
         System.out.println();
 
-        for (int i = 0; i < NUM_STATES; i++) {
+        for (int i = 0; i < config.numStates; i++) {
             System.out.printf("%3d: ", i);
 
-            for (int j = 0; j < alphabet.length; j++) {
-                System.out.printf("%3d", transition[i][j]);
+            for (int j = 0; j < alphabet.size(); j++) {
+                System.out.printf("%3d", transition.get(i, j));
             }
             System.out.println();
         }
 
         System.out.print("     ");
-        for(int i = 0; i < ALPHABET_SIZE; ++i) {
-            System.out.printf("%3c", alphabet[i]);
+        for(int i = 0; i < alphabet.size(); ++i) {
+            System.out.printf("%3c", alphabet.symbol(i));
         }
         System.out.println();
     }
@@ -224,121 +343,667 @@ public class StateMachineEnvironment {
 		// two sensors. The first represents if he is in a new
 		// state and the second represents if he is at the goal
 		boolean[] sensors = {false, false};
-		int newState = transition[currentState][findAlphabetIndex(move)];
+		int encoded = tickEncoded(move);
+		sensors[IS_NEW_STATE] = (encoded != NO_TRANSITION);
+		sensors[IS_GOAL] = (encoded == GOAL);
+		
+		return sensors;
+	}
+	
+	/**
+	 * Same as {@link #tick} but the sensors are returned already encoded as
+	 * a single int so that nothing is allocated.
+	 * 
+	 * @param move
+	 * 		The move the agent is making
+	 * @return
+	 * 		GOAL if the move reached the goal (the environment is then reset),
+	 * 		TRANSITION_ONLY if it moved to some other state and NO_TRANSITION
+	 * 		if the state did not change
+	 */
+	public int tickEncoded(char move) {
+		int newState = transition.get(currentState, alphabet.indexOf(move));
+		
+		// If we have reached the goal, update the goal sensor
+		if(newState == config.goalState){
+			reset();
+			return GOAL;
+		}
 		
 		// If the attempted letter brings us to a new state
 		// update the current state and the new state sensor
 		if(newState != currentState){
 			currentState = newState;
-			sensors[IS_NEW_STATE] = true;
+			return TRANSITION_ONLY;
 		}
 		
-		// If we have reached the goal, update the goal sensor
-		if(newState == GOAL_STATE){
-			sensors[IS_GOAL] = true;
-			reset();
-		}
-		
-		return sensors;
+		return NO_TRANSITION;
+	}
+	
+	/**
+	 * Enters a sequence of moves one after another and records the encoded
+	 * sensor value of each one (see {@link #tickEncoded}).  Stops as soon as
+	 * the goal is reached.
+	 * 
+	 * @param moves
+	 * 		The moves to make
+	 * @param offset
+	 * 		Index in moves of the first move to make
+	 * @param count
+	 * 		How many moves to make
+	 * @param sensors
+	 * 		Receives the sensor value of the i-th move at index i.  Must have
+	 * 		room for count values.
+	 * @return
+	 * 		The index (relative to offset) of the move that reached the goal, or
+	 * 		-1 if all of the moves were made without reaching it
+	 */
+	public int tickAll(char[] moves, int offset, int count, int[] sensors) {
+		return tickAll(moves, offset, count, sensors, null);
 	}
 	
 	/**
-	 * A helper method which determines a given letter's
-	 * location in the alphabet for the tick method
+	 * Same as {@link #tickAll(char[], int, int, int[])} but also stops at the
+	 * first move whose sensor value isn't the expected one, for replaying
+	 * moves that are only worth making while they go the way they went before.
 	 * 
-	 * @param letter
-	 * 		The letter who's index we wish to find
+	 * @param expected
+	 * 		The sensor value each move is expected to give (at index i for the
+	 * 		i-th move), or null to make every move whatever it gives
 	 * @return
-	 * 		The index of the given letter (or -1 if the letter was not found)
+	 * 		The index (relative to offset) of the move that reached the goal or
+	 * 		gave an unexpected sensor value, or -1 if all of the moves were made
+	 * 		as expected without reaching the goal
 	 */
-	private int findAlphabetIndex(char letter) {
-		// Iterate the through the alphabet to find the index of letter
-		for(int i = 0; i < alphabet.length; i++){
-			if(alphabet[i] == letter)
+	public int tickAll(char[] moves, int offset, int count, int[] sensors, int[] expected) {
+		TransitionTable table = transition;
+		int goal = config.goalState;
+		int state = currentState;
+		
+		for (int i = 0; i < count; i++) {
+			int newState = table.get(state, alphabet.indexOf(moves[offset + i]));
+			
+			if (newState == goal) {
+				sensors[i] = GOAL;
+				reset();
 				return i;
+			}
+			
+			sensors[i] = (newState != state) ? TRANSITION_ONLY : NO_TRANSITION;
+			state = newState;
+			if (expected != null && sensors[i] != expected[i]) {
+				currentState = state;
+				return i;
+			}
 		}
 		
-		// Error if letter is not found
+		currentState = state;
 		return -1;
 	}
 	
 	/**
-	 * A helper method which checks if one state has a transition to another
-	 * @param fromState The state to transition from
-	 * @param toState The state to transition to
-	 * @return The index into the alphabet array of the character fromState reads to transition to toState,
-	 * 			or -1 if no such character exists
+	 * Enters every move in a path.  See {@link #tickAll(char[], int, int, int[])}
+	 * 
+	 * @return
+	 * 		The index of the move that reached the goal, or -1 if the path
+	 * 		never reached it
 	 */
-	private int hasTransition(int fromState, int toState) {
-		for (int i = 0; i < transition[fromState].length; i++) {
-			if (transition[fromState][i] == toState) {
-				return i;
-			}
+	public int tickAll(Path moves, int[] sensors) {
+		if (pathBuffer.length < moves.size()) {
+			pathBuffer = new char[Math.max(moves.size(), pathBuffer.length * 2)];
 		}
-		return -1;
+		moves.getChars(pathBuffer, 0);
+		return tickAll(pathBuffer, 0, moves.size(), sensors, null);
 	}
 	
 	/**
-	 * A helper method that generates the shortest path to the goal from each
-	 * state using Dijkstra's algorithm
+	 * Sets up a number of independent walkers that move through this same
+	 * machine, each with its own current state (all starting at the initial
+	 * state).  Walkers are separate from {@link #currentState} and are moved
+	 * with {@link #tickWalkers}.
+	 *
+	 * @param count how many walkers to create
 	 */
-	private void findShortestPaths() {
+	public void initWalkers(int count) {
+		walkerStates = new int[count];
+	}
 
-        initPaths();
-        
-		//Create a queue and add the Goal State to the queue
-		ArrayList<Integer> queue = new ArrayList<Integer>();
-		queue.add(GOAL_STATE);
-		int currState;
-		int transitionChar;
-		
-		
-		while (!queue.isEmpty()) {
-			//Grab the element at the front of the queue
-			currState = queue.get(0);
-			queue.remove(0);
-			
-			//Move through each state that doesn't have a path yet. Find the
-			//transition from that state to the current state.
-			for (int i = 0; i < NUM_STATES; i++) {
-
-                //skip the ones that have a path
-                if (paths[i] != null) continue;
-                
-				transitionChar = hasTransition(i, currState);
-				
-				//If state i has a transition to the current state and has no
-				//path, set the path for state i equal to the transition
-				//character from state i to the current state added to the front
-				//of the shortest path to the current state, and add state i
-				//onto the queue.
-				if (transitionChar != -1) {
-					paths[i] = alphabet[transitionChar] + paths[currState];
-					queue.add(i);
+	/** @return the number of walkers created by the last initWalkers */
+	public int numWalkers() {
+		return walkerStates.length;
+	}
+
+	/** @return the current state of the given walker */
+	public int getWalkerState(int walker) {
+		return walkerStates[walker];
+	}
+
+	/**
+	 * Makes one move for every walker at once.  Walker i makes moves[i] and
+	 * its encoded sensor value (see {@link #tickEncoded}) is stored in
+	 * sensors[i].  A walker that reaches the goal is reset to the initial
+	 * state.
+	 *
+	 * @return the number of walkers that reached the goal
+	 */
+	public int tickWalkers(char[] moves, int[] sensors) {
+		TransitionTable table = transition;
+		int goal = config.goalState;
+		int[] states = walkerStates;
+		int goals = 0;
+
+		for (int i = 0; i < states.length; i++) {
+			int state = states[i];
+			int newState = table.get(state, alphabet.indexOf(moves[i]));
+
+			if (newState == goal) {
+				sensors[i] = GOAL;
+				states[i] = 0;  //reset
+				goals++;
+			}
+			else {
+				sensors[i] = (newState != state) ? TRANSITION_ONLY : NO_TRANSITION;
+				states[i] = newState;
+			}
+		}
+
+		return goals;
+	}
+
+	/**
+	 * Same as {@link #tickWalkers(char[], int[])} but each move is given by
+	 * the index of its character in the alphabet.
+	 *
+	 * @return the number of walkers that reached the goal
+	 */
+	public int tickWalkers(int[] symbols, int[] sensors) {
+		TransitionTable table = transition;
+		int goal = config.goalState;
+		int[] states = walkerStates;
+		int goals = 0;
+
+		for (int i = 0; i < states.length; i++) {
+			int state = states[i];
+			int newState = table.get(state, symbols[i]);
+
+			if (newState == goal) {
+				sensors[i] = GOAL;
+				states[i] = 0;  //reset
+				goals++;
+			}
+			else {
+				sensors[i] = (newState != state) ? TRANSITION_ONLY : NO_TRANSITION;
+				states[i] = newState;
+			}
+		}
+
+		return goals;
+	}
+
+	/**
+	 * Builds the reverse adjacency index: for each state, the list of
+	 * (state, character) pairs that transition into it.  Self transitions are
+	 * left out since they never help a state reach the goal.
+	 *
+	 * The lists are packed one after another into predState/predSymbol and
+	 * the list for state t is found at indexes predStart[t] to
+	 * predStart[t+1]-1.  Each list is in increasing order of state and then
+	 * character.  Entries removed later by setTransition have their state set
+	 * to -1 and entries added later are kept in the extra lists.
+	 */
+	private void buildReverseIndex() {
+		int numStates = config.numStates;
+		int numSymbols = alphabet.size();
+
+		//Count the transitions into each state
+		predStart = new int[numStates + 1];
+		int numEdges = 0;
+		for (int i = 0; i < numStates; i++) {
+			for (int j = 0; j < numSymbols; j++) {
+				int toState = transition.get(i, j);
+				if (toState != i) {
+					predStart[toState + 1]++;
+					numEdges++;
 				}
 			}
+		}
+		for (int i = 0; i < numStates; i++) {
+			predStart[i + 1] += predStart[i];
+		}
 
-        		 //detect if any state does not have a path to the goal
-			boolean noPath = false;
-			for(int i = 0; i < paths.length; i++){
-				if(paths[i] == null){
-					noPath = true;
+		//Fill in each list
+		predState = new int[numEdges];
+		predSymbol = new int[numEdges];
+		int[] next = new int[numStates];
+		System.arraycopy(predStart, 0, next, 0, numStates);
+		for (int i = 0; i < numStates; i++) {
+			for (int j = 0; j < numSymbols; j++) {
+				int toState = transition.get(i, j);
+				if (toState != i) {
+					predState[next[toState]] = i;
+					predSymbol[next[toState]] = j;
+					next[toState]++;
 				}
 			}
+		}
 
-            		//If there is a state with no path to the goal, we have a bum state
-            		//machine. Regenerate and try again
-			if(queue.size() == 0 && noPath){
-				generateStateMachine();
-				findShortestPaths();  //recurse
+		//No extra entries yet
+		extraHead = new int[numStates];
+		Arrays.fill(extraHead, -1);
+		extraState = new int[16];
+		extraSymbol = new int[16];
+		extraNext = new int[16];
+		numExtra = 0;
+	}
+
+	/**
+	 * Adds a transition from fromState on the given character to the list for
+	 * toState in the reverse adjacency index.  The table must already contain
+	 * the transition.
+	 */
+	private void addPredecessor(int toState, int fromState, int symbol) {
+		//Once too many transitions have changed it is cheaper to start over
+		if (numExtra >= predState.length / 2 + 64) {
+			buildReverseIndex();
+			return;
+		}
+
+		if (numExtra == extraState.length) {
+			extraState = Arrays.copyOf(extraState, numExtra * 2);
+			extraSymbol = Arrays.copyOf(extraSymbol, numExtra * 2);
+			extraNext = Arrays.copyOf(extraNext, numExtra * 2);
+		}
+		extraState[numExtra] = fromState;
+		extraSymbol[numExtra] = symbol;
+		extraNext[numExtra] = extraHead[toState];
+		extraHead[toState] = numExtra;
+		numExtra++;
+	}
+
+	/**
+	 * Removes a transition from fromState on the given character from the
+	 * list for toState in the reverse adjacency index.
+	 */
+	private void removePredecessor(int toState, int fromState, int symbol) {
+		for (int k = predStart[toState]; k < predStart[toState + 1]; k++) {
+			if (predState[k] == fromState && predSymbol[k] == symbol) {
+				predState[k] = -1;
+				return;
+			}
+		}
+
+		int prev = -1;
+		for (int k = extraHead[toState]; k != -1; k = extraNext[k]) {
+			if (extraState[k] == fromState && extraSymbol[k] == symbol) {
+				if (prev == -1) {
+					extraHead[toState] = extraNext[k];
+				}
+				else {
+					extraNext[prev] = extraNext[k];
+				}
 				return;
 			}
+			prev = k;
+		}
+	}
+
+	/**
+	 * Copies every (state, character) pair that transitions into the given
+	 * state into bufState/bufSymbol
+	 *
+	 * @return the number of pairs copied
+	 */
+	private int collectPredecessors(int toState) {
+		int count = 0;
+		for (int k = predStart[toState]; k < predStart[toState + 1]; k++) {
+			if (predState[k] != -1) {
+				count = addToBuffers(count, predState[k], predSymbol[k]);
+			}
+		}
+		for (int k = extraHead[toState]; k != -1; k = extraNext[k]) {
+			count = addToBuffers(count, extraState[k], extraSymbol[k]);
+		}
+		return count;
+	}
+
+	/** helper for collectPredecessors */
+	private int addToBuffers(int count, int state, int symbol) {
+		if (count == bufState.length) {
+			bufState = Arrays.copyOf(bufState, count * 2);
+			bufSymbol = Arrays.copyOf(bufSymbol, count * 2);
+		}
+		bufState[count] = state;
+		bufSymbol[count] = symbol;
+		return count + 1;
+	}
+
+	/**
+	 * Changes a single transition of the machine.  Rather than searching the
+	 * whole machine again, only the shortest paths of the states that used
+	 * the old transition (or can use the new one) are updated.
+	 *
+	 * @param state   the state to change
+	 * @param symbol  index of the character to change the transition on
+	 * @param toState the state it should now transition to
+	 * @return true if the goal can still be reached from every state
+	 */
+	public boolean setTransition(int state, int symbol, int toState) {
+		int oldState = transition.get(state, symbol);
+		if (oldState == toState) {
+			return numUnreachable == 0;
+		}
+
+		ensureWritable();
+		if (predStart == null) {
+			buildReverseIndex();
+		}
+		//First take the old transition away (a transition to itself is the
+		//same as no transition at all)...
+		if (oldState != state) {
+			transition.set(state, symbol, state);
+			removePredecessor(oldState, state, symbol);
+			if (state != config.goalState && nextHop[state] == symbol) {
+				lostShortestPath(state);
+			}
+		}
+
+		//...then add the new one
+		transition.set(state, symbol, toState);
+		if (toState != state) {
+			addPredecessor(toState, state, symbol);
+			if (state != config.goalState) {
+				foundShorterPath(state, symbol, toState);
+			}
+		}
+
+		return numUnreachable == 0;
+	}
+
+	/**
+	 * @return true if the goal can be reached from every state
+	 */
+	public boolean isSolvable() {
+		return numUnreachable == 0;
+	}
+
+	/**
+	 * Called after the transition a state's shortest path started with has
+	 * been changed.  The states whose shortest paths went through that
+	 * transition (and that have no other path of the same length) are found
+	 * by walking outward from the state, then their distances are worked out
+	 * again from the states around them that were not affected.
+	 */
+	private void lostShortestPath(int state) {
+		if (affected == null) {
+			affected = new boolean[config.numStates];
+		}
+
+		//Find the affected states, closest to the goal first.  A state isn't
+		//affected if it can switch to another transition that leads one step
+		//closer to the goal through a state that isn't affected.
+		int count = 0;
+		workQueue[count++] = state;
+		for (int head = 0; head < count; head++) {
+			int u = workQueue[head];
+			int alternative = shortestTransition(u, distance[u] - 1);
+			if (alternative != -1) {
+				nextHop[u] = alternative;
+				workQueue[head] = -1;  //not affected
+				continue;
+			}
+			affected[u] = true;
+
+			//States whose shortest path starts with a transition into u
+			int numPreds = collectPredecessors(u);
+			for (int k = 0; k < numPreds; k++) {
+				if (nextHop[bufState[k]] == bufSymbol[k] && bufState[k] != config.goalState) {
+					if (count == workQueue.length) {
+						workQueue = Arrays.copyOf(workQueue, count * 2);
+					}
+					workQueue[count++] = bufState[k];
+				}
+			}
+		}
+
+		//Start each affected state off with its best transition to a state
+		//that wasn't affected, then sort them by that distance
+		long[] seeds = new long[count];
+		int numSeeds = 0;
+		for (int i = 0; i < count; i++) {
+			int u = workQueue[i];
+			if (u == -1) continue;
+			int symbol = shortestTransition(u, Integer.MAX_VALUE);
+			nextHop[u] = symbol;
+			if (symbol == -1) {
+				distance[u] = Integer.MAX_VALUE;
+			}
+			else {
+				distance[u] = distance[transition.get(u, symbol)] + 1;
+			}
+			seeds[numSeeds++] = ((long)distance[u] << 32) | u;
+		}
+		Arrays.sort(seeds, 0, numSeeds);
+
+		//Then spread the shortest distances among the affected states in
+		//order of distance.  The seeds are already sorted and anything added
+		//to the fifo is never closer than what came before it, so the closest
+		//state is always at the front of one of the two.
+		long[] fifo = new long[numSeeds];
+		int fifoHead = 0;
+		int fifoTail = 0;
+		int next = 0;
+		while (next < numSeeds || fifoHead < fifoTail) {
+			long entry;
+			if (fifoHead == fifoTail || (next < numSeeds && seeds[next] <= fifo[fifoHead])) {
+				entry = seeds[next++];
+			}
+			else {
+				entry = fifo[fifoHead++];
+			}
+			int u = (int)entry;
+			int d = (int)(entry >>> 32);
+			if (d != distance[u] || d == Integer.MAX_VALUE) continue;  //stale
+
+			int numPreds = collectPredecessors(u);
+			for (int k = 0; k < numPreds; k++) {
+				int p = bufState[k];
+				if (affected[p] && d + 1 < distance[p]) {
+					distance[p] = d + 1;
+					nextHop[p] = bufSymbol[k];
+					if (fifoTail == fifo.length) {
+						fifo = Arrays.copyOf(fifo, fifo.length * 2 + 1);
+					}
+					fifo[fifoTail++] = ((long)(d + 1) << 32) | p;
+				}
+			}
+		}
+
+		//Anything left over can no longer reach the goal
+		for (int i = 0; i < count; i++) {
+			int u = workQueue[i];
+			if (u == -1) continue;
+			affected[u] = false;
+			if (distance[u] == Integer.MAX_VALUE) {
+				distance[u] = -1;
+				nextHop[u] = -1;
+				numUnreachable++;
+			}
+		}
+	}
+
+	/**
+	 * Finds a transition out of a state to an unaffected state that can reach
+	 * the goal.
+	 *
+	 * @param state       the state to look at
+	 * @param maxDistance the largest distance allowed for the state moved to.
+	 *                    Integer.MAX_VALUE picks the closest one; anything
+	 *                    else asks for a state exactly that far from the goal.
+	 * @return the index of the character to transition on or -1 if none
+	 */
+	private int shortestTransition(int state, int maxDistance) {
+		int best = -1;
+		int bestDistance = Integer.MAX_VALUE;
+		for (int j = 0; j < alphabet.size(); j++) {
+			int w = transition.get(state, j);
+			if (w == state || affected[w] || distance[w] < 0 || distance[w] >= bestDistance) continue;
+			if (maxDistance != Integer.MAX_VALUE && distance[w] != maxDistance) continue;
+			best = j;
+			bestDistance = distance[w];
+		}
+		return best;
+	}
+
+	/**
+	 * Called after a transition has been added.  If it gives the state a
+	 * shorter path to the goal, the shorter distance is spread backwards to
+	 * every state that can now use it.
+	 */
+	private void foundShorterPath(int state, int symbol, int toState) {
+		if (distance[toState] == -1) return;
+		if (distance[state] != -1 && distance[toState] + 1 >= distance[state]) return;
+
+		if (distance[state] == -1) {
+			numUnreachable--;
+		}
+		distance[state] = distance[toState] + 1;
+		nextHop[state] = symbol;
+
+		int tail = 0;
+		workQueue[tail++] = state;
+		for (int head = 0; head < tail; head++) {
+			int u = workQueue[head];
+			int numPreds = collectPredecessors(u);
+			for (int k = 0; k < numPreds; k++) {
+				int p = bufState[k];
+				if (p == config.goalState) continue;
+				if (distance[p] == -1 || distance[u] + 1 < distance[p]) {
+					if (distance[p] == -1) {
+						numUnreachable--;
+					}
+					distance[p] = distance[u] + 1;
+					nextHop[p] = bufSymbol[k];
+					if (tail == workQueue.length) {
+						workQueue = Arrays.copyOf(workQueue, tail * 2);
+					}
+					workQueue[tail++] = p;
+				}
+			}
+		}
+	}
+
+	/**
+	 * A table loaded from a file is read only.  Copies it before it is
+	 * changed for the first time.
+	 */
+	private void ensureWritable() {
+		if (transition instanceof PackedTransitionTable
+				&& ((PackedTransitionTable)transition).buffer().isReadOnly()) {
+			TransitionTable copy = config.newTransitionTable();
+			for (int i = 0; i < config.numStates; i++) {
+				for (int j = 0; j < alphabet.size(); j++) {
+					copy.set(i, j, transition.get(i, j));
+				}
+			}
+			transition = copy;
+		}
+	}
+	
+	/**
+	 * A helper method that generates the shortest path to the goal from each
+	 * state with a breadth first search backwards from the goal over the
+	 * reverse adjacency index.
+	 *
+	 * @return true if every state has a path to the goal
+	 */
+	private boolean findShortestPaths() {
+
+        buildReverseIndex();
+        
+		//The queue never holds a state twice so a plain array is enough.
+		//Add the Goal State to the queue
+		int[] queue = new int[config.numStates];
+		int head = 0;
+		int tail = 0;
+		distance = new int[config.numStates];
+		nextHop = new int[config.numStates];
+		for (int i = 0; i < distance.length; i++) {
+			distance[i] = -1;
+			nextHop[i] = -1;
+		}
+		distance[config.goalState] = 0;
+		queue[tail++] = config.goalState;
+		
+		while (head < tail) {
+			//Grab the element at the front of the queue
+			int currState = queue[head++];
+			
+			//Move through each state with a transition into the current state
+			//that doesn't have a path yet.
+			for (int k = predStart[currState]; k < predStart[currState + 1]; k++) {
+				int i = predState[k];
+				if (distance[i] != -1) continue;
+				
+				//The shortest path for state i is the transition character from
+				//state i to the current state followed by the shortest path of
+				//the current state.  Add state i onto the queue.
+				distance[i] = distance[currState] + 1;
+				nextHop[i] = predSymbol[k];
+				queue[tail++] = i;
+			}
 		}
 
         	//DEBUG
 		// if (debug) {
 		// 	printPaths();
 		// }
+
+		//every state was reached if every state made it into the queue
+		numUnreachable = config.numStates - tail;
+		return numUnreachable == 0;
+	}
+	
+	/**
+	 * Builds the shortest path from a state to the goal by following each
+	 * state's next character.  Nothing about the path is stored, so this
+	 * takes time proportional to the length of the path.
+	 *
+	 * @return the path, or null if the goal can't be reached from the state
+	 */
+	public Path getPath(int state) {
+		if (distance[state] == -1) {
+			return null;
+		}
+		char[] moves = new char[distance[state]];
+		for (int i = 0; i < moves.length; i++) {
+			moves[i] = alphabet.symbol(nextHop[state]);
+			state = transition.get(state, nextHop[state]);
+		}
+		return new Path(moves, 0, moves.length);
+	}
+
+	/**
+	 * Streams the shortest path from a state to the goal one character
+	 * (index) at a time without building it.  The iterator should not be used
+	 * after the machine has been changed.
+	 */
+	public PrimitiveIterator.OfInt pathSymbols(final int start) {
+		return new PrimitiveIterator.OfInt() {
+			private int state = start;
+
+			public boolean hasNext() {
+				return state != config.goalState && distance[state] != -1;
+			}
+
+			public int nextInt() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				int symbol = nextHop[state];
+				state = transition.get(state, symbol);
+				return symbol;
+			}
+		};
 	}
 	
 	/**
@@ -346,17 +1011,50 @@ public class StateMachineEnvironment {
 	 */
 	public void printPaths() {
 		System.out.println("Paths: ");
-		for (String path : paths) {
-			System.out.println(path);
+		for (int i = 0; i < config.numStates; i++) {
+			System.out.println(getPath(i));
 		}
 	}
 	
+	/**
+	 * Builds the shortest path of every state as a string (null for states
+	 * that can't reach the goal).  This is a convenience for small machines;
+	 * use getPath or pathSymbols for big ones.
+	 */
 	public String[] getPaths() {
+		String[] paths = new String[config.numStates];
+		for (int i = 0; i < paths.length; i++) {
+			Path path = getPath(i);
+			paths[i] = (path == null) ? null : path.toString();
+		}
 		return paths;
 	}
 
-    public char[] getAlphabet() {
+	/**
+	 * @return the number of moves needed to reach the goal from the given state
+	 */
+	public int getDistance(int state) {
+		return distance[state];
+	}
+
+	/**
+	 * @return the index of the first character on the shortest path from the
+	 *         given state to the goal (or -1 for the goal itself)
+	 */
+	public int getNextHop(int state) {
+		return nextHop[state];
+	}
+
+	public TransitionTable getTransitionTable() {
+		return transition;
+	}
+
+    public Alphabet getAlphabet() {
         return alphabet;
     }
+
+    public EnvironmentConfig getConfig() {
+        return config;
+    }
     
 }
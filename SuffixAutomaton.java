@@ -0,0 +1,350 @@
+
+import java.util.Arrays;
+
+/**
+ * <!-- class SuffixAutomaton -->
+ *
+ * An online suffix automaton over a sequence of int symbols.  It answers "is
+ * this string a substring of the text, and where does it last end" for a
+ * string that is built one symbol at a time, which lets the agent find the
+ * longest earlier match of its most recent moves without scanning memory.
+ *
+ * Every state of the automaton is a set of substrings that end at the same
+ * positions of the text.  Besides the usual length, suffix link and
+ * transitions, each state remembers the last position at which its
+ * substrings end.  Appending symbol p makes p the last end of every state on
+ * the suffix link path of the new state, so the suffix link tree is kept in
+ * a link/cut tree where a whole path can be assigned at once.  That keeps
+ * every append and every lookup at amortized O(log n).
+ *
+ */
+public class SuffixAutomaton {
+
+	public static final int NONE = -1;
+	public static final int ROOT = 0;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	// Instance variables
+	private int length;      //symbols in the text
+	private int numStates;
+	private int last;        //the state holding the whole text
+
+	//per state
+	private int[] len;       //length of the longest string in the state
+	private int[] link;      //suffix link
+	private int[] edges;     //first transition out of the state (or NONE)
+
+	//transitions: a list per state (for copying) plus a hash table (for lookup)
+	private int[] edgeSymbol;
+	private int[] edgeNext;
+	private int numEdges;
+	private long[] keys;     //state and symbol of each hash slot (EMPTY if unused)
+	private int[] targets;
+	private static final long EMPTY = -1L;
+
+	//link/cut tree over the suffix link tree.  Nodes are state + 1 so that 0
+	//can mean "no node".  lastEnd and pending are per node.
+	private int[] left;
+	private int[] right;
+	private int[] parent;    //splay tree parent, or path parent for a splay root
+	private int[] lastEnd;   //last position that the state's strings end at
+	private int[] pending;   //lastEnd still to be given to the node's splay subtree
+
+	public SuffixAutomaton() {
+		len = new int[INITIAL_CAPACITY];
+		link = new int[INITIAL_CAPACITY];
+		edges = new int[INITIAL_CAPACITY];
+		left = new int[INITIAL_CAPACITY + 1];
+		right = new int[INITIAL_CAPACITY + 1];
+		parent = new int[INITIAL_CAPACITY + 1];
+		lastEnd = new int[INITIAL_CAPACITY + 1];
+		pending = new int[INITIAL_CAPACITY + 1];
+		edgeSymbol = new int[INITIAL_CAPACITY];
+		edgeNext = new int[INITIAL_CAPACITY];
+		keys = new long[INITIAL_CAPACITY * 2];
+		targets = new int[INITIAL_CAPACITY * 2];
+		Arrays.fill(keys, EMPTY);
+
+		last = newState(0, NONE);
+	}
+
+	/** @return the number of symbols in the text */
+	public int length() {
+		return length;
+	}
+
+	/** @return the state that holds the whole text */
+	public int lastState() {
+		return last;
+	}
+
+	/** @return the length of the longest string in the given state */
+	public int len(int state) {
+		return len[state];
+	}
+
+	/** @return the suffix link of the given state (NONE for the root) */
+	public int link(int state) {
+		return link[state];
+	}
+
+	/**
+	 * @return the state reached from the given state on the given symbol or
+	 *         NONE if there is no such transition
+	 */
+	public int next(int state, int symbol) {
+		int slot = find(state, symbol);
+		return (keys[slot] == EMPTY) ? NONE : targets[slot];
+	}
+
+	/**
+	 * @return the last position of the text at which the strings of the given
+	 *         state end (-1 for the root, which only holds the empty string)
+	 */
+	public int lastEnd(int state) {
+		if (state == ROOT) {
+			return -1;
+		}
+		access(state + 1);
+		return lastEnd[state + 1];
+	}
+
+	/**
+	 * Appends a symbol to the text
+	 *
+	 * @param symbol any int that is not negative
+	 */
+	public void append(int symbol) {
+		int position = length++;
+		int cur = newState(len[last] + 1, NONE);
+
+		int p = last;
+		while (p != NONE && next(p, symbol) == NONE) {
+			setNext(p, symbol, cur);
+			p = link[p];
+		}
+
+		if (p == NONE) {
+			link[cur] = ROOT;
+		}
+		else {
+			int q = next(p, symbol);
+			if (len[p] + 1 == len[q]) {
+				link[cur] = q;
+			}
+			else {
+				//q holds strings that are too long; split the shorter ones off
+				int clone = newState(len[p] + 1, link[q]);
+				for (int e = edges[q]; e != NONE; e = edgeNext[e]) {
+					setNext(clone, edgeSymbol[e], next(q, edgeSymbol[e]));
+				}
+				lastEnd[clone + 1] = lastEnd(q);
+				cut(q + 1);
+				linkTo(clone + 1, link[q] + 1);
+				linkTo(q + 1, clone + 1);
+
+				while (p != NONE && next(p, symbol) == q) {
+					setNext(p, symbol, clone);
+					p = link[p];
+				}
+				link[q] = clone;
+				link[cur] = clone;
+			}
+		}
+
+		linkTo(cur + 1, link[cur] + 1);
+		last = cur;
+
+		//Every suffix of the text now ends at this position
+		access(cur + 1);
+		assign(cur + 1, position);
+	}
+
+	/**
+	 * adds a state with no transitions, linked into the link/cut tree only if
+	 * it has a suffix link
+	 */
+	private int newState(int length, int suffixLink) {
+		if (numStates == len.length) {
+			int capacity = len.length * 2;
+			len = Arrays.copyOf(len, capacity);
+			link = Arrays.copyOf(link, capacity);
+			edges = Arrays.copyOf(edges, capacity);
+			left = Arrays.copyOf(left, capacity + 1);
+			right = Arrays.copyOf(right, capacity + 1);
+			parent = Arrays.copyOf(parent, capacity + 1);
+			lastEnd = Arrays.copyOf(lastEnd, capacity + 1);
+			pending = Arrays.copyOf(pending, capacity + 1);
+		}
+		int state = numStates++;
+		len[state] = length;
+		link[state] = suffixLink;
+		edges[state] = NONE;
+		lastEnd[state + 1] = -1;
+		pending[state + 1] = -1;
+		return state;
+	}
+
+	/*--------------------------------------------------------------------
+	 * Transitions
+	 */
+
+	/** @return the hash slot holding the given transition, or the empty slot where it belongs */
+	private int find(int state, int symbol) {
+		long key = ((long)state << 32) | symbol;
+		int mask = keys.length - 1;
+		long h = key * 0x9E3779B97F4A7C15L;
+		int slot = (int)(h >>> 32) & mask;
+		while (keys[slot] != EMPTY && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void setNext(int state, int symbol, int target) {
+		int slot = find(state, symbol);
+		if (keys[slot] == EMPTY) {
+			if (numEdges == edgeSymbol.length) {
+				edgeSymbol = Arrays.copyOf(edgeSymbol, numEdges * 2);
+				edgeNext = Arrays.copyOf(edgeNext, numEdges * 2);
+			}
+			edgeSymbol[numEdges] = symbol;
+			edgeNext[numEdges] = edges[state];
+			edges[state] = numEdges++;
+
+			keys[slot] = ((long)state << 32) | symbol;
+			if (numEdges * 2 > keys.length) {
+				targets[slot] = target;
+				rehash();
+				return;
+			}
+		}
+		targets[slot] = target;
+	}
+
+	private void rehash() {
+		long[] oldKeys = keys;
+		int[] oldTargets = targets;
+		keys = new long[oldKeys.length * 2];
+		targets = new int[oldKeys.length * 2];
+		Arrays.fill(keys, EMPTY);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				int slot = find((int)(oldKeys[i] >>> 32), (int)oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				targets[slot] = oldTargets[i];
+			}
+		}
+	}
+
+	/*--------------------------------------------------------------------
+	 * Link/cut tree (rooted at the root state, never re-rooted)
+	 */
+
+	private boolean isSplayRoot(int x) {
+		int p = parent[x];
+		return p == 0 || (left[p] != x && right[p] != x);
+	}
+
+	private void assign(int x, int value) {
+		if (x != 0) {
+			lastEnd[x] = value;
+			pending[x] = value;
+		}
+	}
+
+	private void pushDown(int x) {
+		if (pending[x] >= 0) {
+			assign(left[x], pending[x]);
+			assign(right[x], pending[x]);
+			pending[x] = -1;
+		}
+	}
+
+	private void rotate(int x) {
+		int p = parent[x];
+		int g = parent[p];
+		if (!isSplayRoot(p)) {
+			if (left[g] == p) {
+				left[g] = x;
+			}
+			else {
+				right[g] = x;
+			}
+		}
+		parent[x] = g;
+		if (left[p] == x) {
+			left[p] = right[x];
+			if (right[x] != 0) {
+				parent[right[x]] = p;
+			}
+			right[x] = p;
+		}
+		else {
+			right[p] = left[x];
+			if (left[x] != 0) {
+				parent[left[x]] = p;
+			}
+			left[x] = p;
+		}
+		parent[p] = x;
+	}
+
+	private int[] splayStack = new int[INITIAL_CAPACITY];
+
+	private void splay(int x) {
+		//push pending values down from the top of x's splay tree first
+		int depth = 0;
+		int y = x;
+		while (true) {
+			if (depth == splayStack.length) {
+				splayStack = Arrays.copyOf(splayStack, depth * 2);
+			}
+			splayStack[depth++] = y;
+			if (isSplayRoot(y)) {
+				break;
+			}
+			y = parent[y];
+		}
+		while (depth > 0) {
+			pushDown(splayStack[--depth]);
+		}
+
+		while (!isSplayRoot(x)) {
+			int p = parent[x];
+			if (!isSplayRoot(p)) {
+				int g = parent[p];
+				boolean zigZig = (left[g] == p) == (left[p] == x);
+				rotate(zigZig ? p : x);
+			}
+			rotate(x);
+		}
+	}
+
+	/** makes the path from the root to x a single splay tree with x at its top */
+	private void access(int x) {
+		int below = 0;
+		for (int y = x; y != 0; y = parent[y]) {
+			splay(y);
+			right[y] = below;
+			below = y;
+		}
+		splay(x);
+	}
+
+	/** hangs x (the top of its own tree) below p */
+	private void linkTo(int x, int p) {
+		access(x);
+		parent[x] = p;
+	}
+
+	/** detaches x (and everything below it) from its parent */
+	private void cut(int x) {
+		access(x);
+		if (left[x] != 0) {
+			parent[left[x]] = 0;
+			left[x] = 0;
+		}
+	}
+}
@@ -0,0 +1,29 @@
+
+/**
+ * <!-- interface TransitionTable -->
+ *
+ * The transition function of a state machine: for each state and each
+ * character (by its index in the alphabet) the state it transitions to.
+ *
+ * @see ArrayTransitionTable
+ * @see PackedTransitionTable
+ */
+public interface TransitionTable {
+
+	/** @return the number of states (rows) in the table */
+	int numStates();
+
+	/** @return the number of characters (columns) in the table */
+	int numSymbols();
+
+	/**
+	 * @return the state reached by reading the given character in the given
+	 *         state
+	 */
+	int get(int state, int symbol);
+
+	/**
+	 * sets the state reached by reading the given character in the given state
+	 */
+	void set(int state, int symbol, int toState);
+}